@@ -0,0 +1,46 @@
+package com.sorbonne.book_search_engine.algorithms.graph;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Rank of every book of a ranking, looked up by a binary search of the book id then an array read:
+ * books are numbered by ascending id, and rankByBookOrdinal holds the position of each book in the ranking.
+ */
+public final class BookRanks {
+    // ids of ranked books, ascending
+    private final int[] ids;
+    private final int[] rankByBookOrdinal;
+
+    private BookRanks(int[] ids, int[] rankByBookOrdinal) {
+        this.ids = ids;
+        this.rankByBookOrdinal = rankByBookOrdinal;
+    }
+
+    /**
+     * @param orderedIds ids of books, best first
+     * @return the ranks of the books
+     */
+    public static BookRanks of(Collection<Integer> orderedIds) {
+        int[] ranked = orderedIds.stream().mapToInt(Integer::intValue).toArray();
+        int[] ids = ranked.clone();
+        Arrays.sort(ids);
+        int[] rankByBookOrdinal = new int[ids.length];
+        for (int rank = 0; rank < ranked.length; rank++)
+            rankByBookOrdinal[Arrays.binarySearch(ids, ranked[rank])] = rank;
+        return new BookRanks(ids, rankByBookOrdinal);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param bookId id of a book
+     * @return the position of the book in the ranking from 0, or -1 if the book is not ranked
+     */
+    public int rank(int bookId) {
+        int book = Arrays.binarySearch(ids, bookId);
+        return book < 0 ? -1 : rankByBookOrdinal[book];
+    }
+}
@@ -0,0 +1,159 @@
+package com.sorbonne.book_search_engine.algorithms.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Exact harmonic centrality of the books of a {@link SimilarityGraph}: the mean over the other books of the inverse
+ * of the length of the shortest path to them, the length of an edge being the Jaccard distance of its books.
+ * Books that cannot be reached add nothing, so the centrality is defined on a graph of several components,
+ * where the closeness (the inverse of the mean length) is not.
+ *
+ * A Dijkstra search is run from every book, searches being spread over the threads, each one keeping its own
+ * distances and heap over primitive arrays: memory grows with the edges of the graph and the number of threads,
+ * not with the square of the number of books.
+ */
+public final class HarmonicCentrality {
+    // length of an edge between books at distance 0, so that the inverse of a path length stays finite
+    private static final double MIN_LENGTH = 1e-3;
+
+    private HarmonicCentrality() {
+    }
+
+    /**
+     * @param graph the similarity graph of books
+     * @param parallelism number of threads running searches
+     * @param progress called with the number of searches done, every 5% of the books
+     * @return the harmonic centrality of each book by ordinal in the graph, between 0 and 1 / MIN_LENGTH
+     */
+    public static double[] compute(SimilarityGraph graph, int parallelism, IntConsumer progress) {
+        int n = graph.size();
+        double[] centralities = new double[n];
+        if (n < 2)
+            return centralities;
+        int step = Math.max(1, n / 20);
+        AtomicInteger done = new AtomicInteger();
+        ThreadLocal<Search> searches = ThreadLocal.withInitial(() -> new Search(n));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(source -> {
+                centralities[source] = searches.get().sumOfInverseLengths(graph, source) / (n - 1);
+                int count = done.incrementAndGet();
+                if (count % step == 0 || count == n)
+                    progress.accept(count);
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("computation of harmonic centrality interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("computation of harmonic centrality failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return centralities;
+    }
+
+    /**
+     * Dijkstra search with an indexed binary heap; only the books reached are reset after a search
+     */
+    private static final class Search {
+        private final double[] lengths;
+        // position of each book in the heap, -1 if not in the heap
+        private final int[] positions;
+        private final int[] heap;
+        private int heapSize;
+        private final int[] reached;
+        private int numberOfReached;
+
+        Search(int n) {
+            lengths = new double[n];
+            Arrays.fill(lengths, Double.POSITIVE_INFINITY);
+            positions = new int[n];
+            Arrays.fill(positions, -1);
+            heap = new int[n];
+            reached = new int[n];
+        }
+
+        double sumOfInverseLengths(SimilarityGraph graph, int source) {
+            double sum = 0;
+            reach(source, 0);
+            while (heapSize > 0) {
+                int book = poll();
+                double length = lengths[book];
+                if (book != source)
+                    sum += 1 / length;
+                for (int edge = graph.edgesStart(book); edge < graph.edgesEnd(book); edge++) {
+                    int other = graph.target(edge);
+                    double candidate = length + Math.max(MIN_LENGTH, graph.distance(edge));
+                    if (candidate < lengths[other]) {
+                        if (lengths[other] == Double.POSITIVE_INFINITY)
+                            reach(other, candidate);
+                        else if (positions[other] >= 0) {
+                            lengths[other] = candidate;
+                            up(positions[other]);
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < numberOfReached; i++)
+                lengths[reached[i]] = Double.POSITIVE_INFINITY;
+            numberOfReached = 0;
+            return sum;
+        }
+
+        private void reach(int book, double length) {
+            lengths[book] = length;
+            reached[numberOfReached++] = book;
+            heap[heapSize] = book;
+            positions[book] = heapSize;
+            up(heapSize++);
+        }
+
+        private int poll() {
+            int top = heap[0];
+            positions[top] = -1;
+            if (--heapSize > 0) {
+                heap[0] = heap[heapSize];
+                positions[heap[0]] = 0;
+                down(0);
+            }
+            return top;
+        }
+
+        private void up(int index) {
+            int book = heap[index];
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (lengths[heap[parent]] <= lengths[book])
+                    break;
+                heap[index] = heap[parent];
+                positions[heap[index]] = index;
+                index = parent;
+            }
+            heap[index] = book;
+            positions[book] = index;
+        }
+
+        private void down(int index) {
+            int book = heap[index];
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= heapSize)
+                    break;
+                if (child + 1 < heapSize && lengths[heap[child + 1]] < lengths[heap[child]])
+                    child++;
+                if (lengths[book] <= lengths[heap[child]])
+                    break;
+                heap[index] = heap[child];
+                positions[heap[index]] = index;
+                index = child;
+            }
+            heap[index] = book;
+            positions[book] = index;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.sorbonne.book_search_engine.algorithms.graph;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Approximate unweighted harmonic centrality of the books of a {@link SimilarityGraph} by HyperBall (Boldi and Vigna):
+ * the ball of radius t of a book, the books at most t edges away from it, is held in a HyperLogLog counter,
+ * and the ball of radius t + 1 is the union of its ball and the balls of radius t of its neighbours,
+ * a union of HyperLogLog counters being the maximum of their registers.
+ * The books first reached at radius t are counted by the difference of the sizes of the balls of radius t and t - 1,
+ * and add 1 / t each to the harmonic centrality, until no ball grows anymore.
+ *
+ * Distances are numbers of edges, whatever the similarity of the books of an edge: this approximates the harmonic
+ * centrality of the hop distance, not the one of {@link HarmonicCentrality} over the Jaccard distances of the edges,
+ * and both rankings may differ, books linked by many weak edges being ranked higher here. Every iteration reads each edge
+ * once, books being computed in parallel, and the counters take 2 * 2^log2m bytes per book whatever the number of
+ * edges; the relative standard deviation of the size of a ball is 1.04 / sqrt(2^log2m).
+ */
+public final class HyperBall {
+
+    private HyperBall() {
+    }
+
+    /**
+     * @param graph the similarity graph of books
+     * @param log2m logarithm of the number of registers of a counter, from 4 to 16
+     * @param parallelism number of threads computing an iteration
+     * @return the approximate harmonic centrality of each book by ordinal in the graph, between 0 and 1
+     */
+    public static double[] compute(SimilarityGraph graph, int log2m, int parallelism) {
+        if (log2m < 4 || log2m > 16)
+            throw new IllegalArgumentException("log2m must be between 4 and 16, not " + log2m);
+        int n = graph.size();
+        double[] centralities = new double[n];
+        if (n < 2)
+            return centralities;
+        int m = 1 << log2m;
+        byte[] current = new byte[n * m];
+        byte[] next = new byte[n * m];
+        double[] sizes = new double[n];
+        for (int book = 0; book < n; book++) {
+            long hash = mix(book + 0x9E3779B97F4A7C15L);
+            int register = (int) (hash >>> (64 - log2m));
+            // position of the first 1 bit of the rest of the hash
+            current[book * m + register] = (byte) (Long.numberOfLeadingZeros(hash << log2m | 1L << (log2m - 1)) + 1);
+            sizes[book] = estimate(current, book * m, m);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            boolean growing = true;
+            for (int radius = 1; growing && radius <= n; radius++) {
+                byte[] balls = current;
+                byte[] unions = next;
+                double inverseRadius = 1.0 / radius;
+                growing = pool.submit(() -> IntStream.range(0, n).parallel().map(book -> {
+                    int start = book * m;
+                    System.arraycopy(balls, start, unions, start, m);
+                    boolean changed = false;
+                    for (int edge = graph.edgesStart(book); edge < graph.edgesEnd(book); edge++) {
+                        int neighbor = graph.target(edge) * m;
+                        for (int register = 0; register < m; register++) {
+                            if (balls[neighbor + register] > unions[start + register]) {
+                                unions[start + register] = balls[neighbor + register];
+                                changed = true;
+                            }
+                        }
+                    }
+                    if (!changed)
+                        return 0;
+                    // the estimate may be a little smaller than the previous one when switching of estimator
+                    double size = estimate(unions, start, m);
+                    if (size > sizes[book]) {
+                        centralities[book] += (size - sizes[book]) * inverseRadius;
+                        sizes[book] = size;
+                    }
+                    return 1;
+                }).sum() > 0).get();
+                next = current;
+                current = unions;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("computation of HyperBall interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("computation of HyperBall failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        for (int book = 0; book < n; book++)
+            centralities[book] = Math.min(1, centralities[book] / (n - 1));
+        return centralities;
+    }
+
+    /**
+     * HyperLogLog estimate of the number of elements of a counter, with the linear counting of small counters
+     */
+    private static double estimate(byte[] registers, int start, int m) {
+        double sum = 0;
+        int zeros = 0;
+        for (int register = start; register < start + m; register++) {
+            sum += Double.longBitsToDouble((1023L - registers[register]) << 52);
+            if (registers[register] == 0)
+                zeros++;
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0)
+            return m * Math.log((double) m / zeros);
+        return estimate;
+    }
+
+    /**
+     * finalizer of SplitMix64, a bijection spreading every bit of its input over its output
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,336 @@
+package com.sorbonne.book_search_engine.algorithms.graph;
+
+import com.sorbonne.book_search_engine.algorithms.keyword.index.Postings;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.TopK;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Jaccard distances between the books of the library, computed only for the pairs of books sharing a stem.
+ * The distance of two books is the sum over their common stems of the difference of relevance,
+ * divided by the sum over their common stems of the greatest relevance, so two books without any common stem
+ * are at distance 1.0. Only the pairs closer than a threshold are stored, the edges of the similarity graph.
+ *
+ * Books are numbered by ascending id. The term tables of the books are turned into postings (the books of each stem),
+ * then the row of each book is accumulated by walking the postings of its stems, keeping only the books after it:
+ * only the pairs sharing a stem are summed, every pair once, and rows are computed in parallel.
+ * While a row is drained, the k nearest books of both books of every pair and the sums of distances of every book
+ * are updated, so that neither needs the distances of every pair, which are never stored.
+ */
+public final class JaccardDistances {
+    private final int[] ids;
+    // books without any stem, at distance 1.0 from themselves
+    private final boolean[] empty;
+    // pairs closer than this distance are stored
+    private final double maxDistance;
+    // for each book, the following books closer than maxDistance, ascending, and their distance
+    private final int[][] neighbors;
+    private final float[][] distances;
+    // for each book, the k other books at the smallest distance among the books sharing a stem with it
+    private final TopK[] nearest;
+    private final int k;
+    // for each book, the sum of its distances to every book, itself included
+    private final double[] sums;
+    private long numberOfPairs;
+
+    private JaccardDistances(int[] ids, int k, double maxDistance) {
+        int n = ids.length;
+        this.ids = ids;
+        this.k = k;
+        this.maxDistance = maxDistance;
+        empty = new boolean[n];
+        neighbors = new int[n][];
+        distances = new float[n][];
+        nearest = new TopK[n];
+        for (int book = 0; book < n; book++)
+            nearest[book] = new TopK(k);
+        sums = new double[n];
+    }
+
+    /**
+     * @param keywordBookTable map of <Id_book, (Stem ordinal, Relevance)>
+     * @param k the greatest number of neighbours of a book in {@link #nearestNeighbors()}
+     * @param maxDistance the distance under which pairs are stored and linked in {@link #similarityGraph()},
+     * 0 to store none
+     * @param parallelism number of threads computing the distances
+     * @return the distances between the pairs of books closer than maxDistance
+     */
+    public static JaccardDistances compute(Map<Integer, Postings> keywordBookTable, int k, double maxDistance,
+                                           int parallelism) {
+        int[] ids = keywordBookTable.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        int n = ids.length;
+        JaccardDistances result = new JaccardDistances(ids, k, maxDistance);
+        Postings[] tables = new Postings[n];
+        int numberOfStems = 0;
+        for (int book = 0; book < n; book++) {
+            tables[book] = keywordBookTable.get(ids[book]);
+            result.empty[book] = tables[book].isEmpty();
+            if (!result.empty[book])
+                numberOfStems = Math.max(numberOfStems, tables[book].id(tables[book].size() - 1) + 1);
+        }
+
+        // postings of each stem: books in ascending order with the relevance of the stem
+        int[] stemOffsets = new int[numberOfStems + 1];
+        for (Postings table : tables) {
+            for (int i = 0; i < table.size(); i++)
+                stemOffsets[table.id(i) + 1]++;
+        }
+        for (int stem = 0; stem < numberOfStems; stem++)
+            stemOffsets[stem + 1] += stemOffsets[stem];
+        int[] stemBooks = new int[stemOffsets[numberOfStems]];
+        float[] stemScores = new float[stemBooks.length];
+        int[] next = Arrays.copyOf(stemOffsets, numberOfStems);
+        for (int book = 0; book < n; book++) {
+            for (int i = 0; i < tables[book].size(); i++) {
+                int p = next[tables[book].id(i)]++;
+                stemBooks[p] = book;
+                stemScores[p] = tables[book].score(i);
+            }
+        }
+
+        Queue<Accumulator> usedAccumulators = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(() -> {
+            Accumulator accumulator = new Accumulator(n);
+            usedAccumulators.add(accumulator);
+            return accumulator;
+        });
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(book -> {
+                Accumulator accumulator = accumulators.get();
+                Postings table = tables[book];
+                // stems in ascending order, so that the sums of a pair are done in the order of the stems
+                for (int i = 0; i < table.size(); i++) {
+                    int stem = table.id(i);
+                    double relevance1 = table.score(i);
+                    int start = Arrays.binarySearch(stemBooks, stemOffsets[stem], stemOffsets[stem + 1], book) + 1;
+                    for (int p = start; p < stemOffsets[stem + 1]; p++) {
+                        double relevance2 = stemScores[p];
+                        accumulator.add(stemBooks[p], Math.max(relevance1, relevance2) - Math.min(relevance1, relevance2),
+                                Math.max(relevance1, relevance2));
+                    }
+                }
+                accumulator.drainTo(book, result);
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("computation of Jaccard distances interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("computation of Jaccard distances failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        // the pairs not met share no stem and are at distance 1.0
+        int[] pairs = new int[n];
+        for (Accumulator accumulator : usedAccumulators) {
+            for (int book = 0; book < n; book++) {
+                result.sums[book] += accumulator.sums[book];
+                pairs[book] += accumulator.pairs[book];
+            }
+        }
+        for (int book = 0; book < n; book++) {
+            result.sums[book] += (n - 1 - pairs[book]) + (result.empty[book] ? 1.0 : 0.0);
+            result.numberOfPairs += pairs[book];
+        }
+        result.numberOfPairs /= 2;
+        return result;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return the ids of the books, ascending
+     */
+    public int[] getIds() {
+        return ids.clone();
+    }
+
+    /**
+     * @return the number of pairs of distinct books sharing a stem
+     */
+    public long getNumberOfPairs() {
+        return numberOfPairs;
+    }
+
+    /**
+     * @return for each book, the sum of its distances to every book, itself included, summed while the distances
+     * were computed
+     */
+    public HashMap<Integer, Double> sumsOfDistances() {
+        HashMap<Integer, Double> sumsById = new HashMap<>();
+        for (int book = 0; book < ids.length; book++)
+            sumsById.put(ids[book], sums[book]);
+        return sumsById;
+    }
+
+    /**
+     * @return for each book, the k other books at the smallest distance among the books sharing a stem with it,
+     * the smallest id first among books at the same distance
+     */
+    public NearestNeighborGraph nearestNeighbors() {
+        int n = ids.length;
+        int[] offsets = new int[n + 1];
+        for (int book = 0; book < n; book++)
+            offsets[book + 1] = offsets[book] + nearest[book].size();
+        int[] graphNeighbors = new int[offsets[n]];
+        float[] graphDistances = new float[offsets[n]];
+        for (int book = 0; book < n; book++) {
+            Postings top = nearest[book].toPostings();
+            int entry = offsets[book];
+            for (int index : top.indexesByScore()) {
+                graphNeighbors[entry] = ids[top.id(index)];
+                graphDistances[entry] = -top.score(index);
+                entry++;
+            }
+        }
+        return new NearestNeighborGraph(k, ids.clone(), offsets, graphNeighbors, graphDistances);
+    }
+
+    /**
+     * @return the graph linking every pair of books closer than the maxDistance of the computation,
+     * weighted by their similarity, built from the stored pairs only
+     */
+    public SimilarityGraph similarityGraph() {
+        int n = ids.length;
+        int[] offsets = new int[n + 1];
+        for (int book = 0; book < n; book++) {
+            offsets[book + 1] += neighbors[book].length;
+            for (int other : neighbors[book])
+                offsets[other + 1]++;
+        }
+        for (int book = 0; book < n; book++)
+            offsets[book + 1] += offsets[book];
+        int[] targets = new int[offsets[n]];
+        float[] edgeDistances = new float[offsets[n]];
+        int[] next = Arrays.copyOf(offsets, n);
+        // edges to the books before a book are all added before the edges to the books after it, so edges stay sorted
+        for (int book = 0; book < n; book++) {
+            for (int i = 0; i < neighbors[book].length; i++) {
+                int other = neighbors[book][i];
+                targets[next[book]] = other;
+                edgeDistances[next[book]++] = distances[book][i];
+                targets[next[other]] = book;
+                edgeDistances[next[other]++] = distances[book][i];
+            }
+        }
+        return new SimilarityGraph(ids.clone(), offsets, targets, edgeDistances);
+    }
+
+    /**
+     * Jaccard distance of two books from their term tables, both sorted by stem ordinal:
+     * stems in common are found by a linear merge. The merge is branch-light: every step adds the terms of the
+     * current pair of stems multiplied by 1 if the stems are equal and 0 otherwise, and moves each table forward
+     * by the result of a comparison, so the only branch left is the end of the loop
+     * @param table1 the stems of a book with their relevance
+     * @param table2 the stems of another book with their relevance
+     * @return the distance of both books, 1.0 if they have no stem in common
+     */
+    public static double jaccardDistanceBetweenTable(Postings table1, Postings table2){
+        double dividend = 0;
+        double divisor = 0;
+
+        int size1 = table1.size();
+        int size2 = table2.size();
+        int i = 0;
+        int j = 0;
+        while (i < size1 && j < size2){
+            int stem1 = table1.id(i);
+            int stem2 = table2.id(j);
+            double relevance1 = table1.score(i);
+            double relevance2 = table2.score(j);
+            double common = stem1 == stem2 ? 1.0 : 0.0;
+            dividend += common * Math.abs(relevance1 - relevance2);
+            divisor += common * Math.max(relevance1, relevance2);
+            i += stem1 <= stem2 ? 1 : 0;
+            j += stem2 <= stem1 ? 1 : 0;
+        }
+
+        if (divisor == 0)
+            return 1.0;
+        return dividend / divisor;
+    }
+
+    /**
+     * sums of a row: the books met at least once, with their sums for the common stems met so far,
+     * and the sums of the distances of the rows drained by the thread
+     */
+    private static final class Accumulator {
+        private final double[] dividends;
+        private final double[] divisors;
+        private final boolean[] met;
+        private int[] touched = new int[16];
+        private int size;
+        private final double[] sums;
+        private final int[] pairs;
+
+        Accumulator(int n) {
+            dividends = new double[n];
+            divisors = new double[n];
+            met = new boolean[n];
+            sums = new double[n];
+            pairs = new int[n];
+        }
+
+        void add(int book, double dividend, double divisor) {
+            if (!met[book]) {
+                met[book] = true;
+                if (size == touched.length)
+                    touched = Arrays.copyOf(touched, size * 2);
+                touched[size++] = book;
+            }
+            dividends[book] += dividend;
+            divisors[book] += divisor;
+        }
+
+        /**
+         * store the distances of the row of the book under maxDistance, offer them to the nearest books of both books of every pair,
+         * add them to the sums of distances of both books, and clear the sums for the next row
+         */
+        void drainTo(int book, JaccardDistances result) {
+            Arrays.sort(touched, 0, size);
+            float[] values = new float[size];
+            int stored = 0;
+            for (int i = 0; i < size; i++) {
+                int other = touched[i];
+                float distance = divisors[other] == 0 ? 1f : (float) (dividends[other] / divisors[other]);
+                values[i] = distance;
+                if (distance < result.maxDistance)
+                    stored++;
+                dividends[other] = 0;
+                divisors[other] = 0;
+                met[other] = false;
+                sums[book] += distance;
+                sums[other] += distance;
+                pairs[other]++;
+                // the best pairs have the greatest score, and the smallest ordinal among pairs of the same score
+                if (distance < 1) {
+                    synchronized (result.nearest[book]) {
+                        result.nearest[book].offer(other, -distance);
+                    }
+                    synchronized (result.nearest[other]) {
+                        result.nearest[other].offer(book, -distance);
+                    }
+                }
+            }
+            pairs[book] += size;
+            int[] row = new int[stored];
+            float[] rowDistances = new float[stored];
+            for (int i = 0, j = 0; j < stored; i++) {
+                if (values[i] < result.maxDistance) {
+                    row[j] = touched[i];
+                    rowDistances[j++] = values[i];
+                }
+            }
+            size = 0;
+            result.neighbors[book] = row;
+            result.distances[book] = rowDistances;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.sorbonne.book_search_engine.algorithms.graph;
+
+import com.sorbonne.book_search_engine.algorithms.keyword.index.Postings;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Approximate neighbours of books by locality sensitive hashing of weighted MinHash signatures.
+ * The signature of a book is drawn from its stems weighted by their relevance with Ioffe's consistent weighted
+ * sampling, so that two books get the same value for a hash function with a probability equal to the weighted
+ * Jaccard similarity of their stems (sum of the smaller relevance over sum of the greater one).
+ * Signatures are cut in bands of rows, and books whose signatures agree on all the rows of a band fall in the same
+ * bucket of this band: books sharing a bucket are the candidate neighbours of each other, to be ranked again
+ * with their exact distance.
+ *
+ * The weighted Jaccard similarity sampled here is taken over all the stems of both books, while the exact
+ * distance ranking the candidates, as everywhere in the library, only sums over their common stems
+ * (see {@link JaccardDistances}): two books sharing a few stems of the same relevance are at a small distance
+ * but may have dissimilar signatures. Bands and rows are thus tuned for the weighted Jaccard similarity,
+ * and the index is a recall heuristic for the distance of the library, not an exact search for it.
+ *
+ * Random values of a hash function for a stem are derived from a hash of the stem itself, so the signature of a book
+ * does not depend on the other books and books can be inserted or removed at any time.
+ */
+public final class MinHashIndex {
+    private final int bands;
+    private final int rows;
+    // book id -> signature
+    private final HashMap<Integer, int[]> signatures = new HashMap<>();
+    // for each band, key of the rows of the band -> ids of books
+    private final List<HashMap<Long, HashSet<Integer>>> buckets = new ArrayList<>();
+
+    /**
+     * @param bands number of bands of a signature, more bands finding more distant neighbours
+     * @param rows number of hash functions of a band, more rows keeping fewer false candidates
+     */
+    public MinHashIndex(int bands, int rows) {
+        if (bands < 1 || rows < 1)
+            throw new IllegalArgumentException("a MinHash index needs at least one band of one row");
+        this.bands = bands;
+        this.rows = rows;
+        for (int band = 0; band < bands; band++)
+            buckets.add(new HashMap<>());
+    }
+
+    /**
+     * index every book, signatures being computed in parallel
+     * @param keywordBookTable map of <Id_book, (Stem ordinal, Relevance)>
+     * @param stems the stems of the tables, by ordinal
+     * @param bands number of bands of a signature
+     * @param rows number of hash functions of a band
+     * @param parallelism number of threads computing the signatures
+     * @return an index holding every book with at least one stem
+     */
+    public static MinHashIndex build(Map<Integer, Postings> keywordBookTable, List<String> stems, int bands, int rows,
+                                     int parallelism) {
+        MinHashIndex index = new MinHashIndex(bands, rows);
+        long[] stemHashes = stemHashes(stems);
+        List<Map.Entry<Integer, Postings>> books = new ArrayList<>(keywordBookTable.entrySet());
+        int[][] signatures = new int[books.size()][];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, books.size()).parallel()
+                    .forEach(i -> signatures[i] = index.signature(books.get(i).getValue(), stemHashes))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("computation of MinHash signatures interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("computation of MinHash signatures failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < books.size(); i++) {
+            if (signatures[i] != null)
+                index.add(books.get(i).getKey(), signatures[i]);
+        }
+        return index;
+    }
+
+    /**
+     * index a book, replacing its previous signature
+     * @param bookId id of the book
+     * @param table the stems of the book with their relevance
+     * @param stems the stems of the table, by ordinal
+     */
+    public void insert(int bookId, Postings table, List<String> stems) {
+        int[] signature = signature(table, stemHashes(stems));
+        synchronized (this) {
+            remove(bookId);
+            if (signature != null)
+                add(bookId, signature);
+        }
+    }
+
+    /**
+     * @param bookId id of a book to forget
+     */
+    public synchronized void remove(int bookId) {
+        int[] signature = signatures.remove(bookId);
+        if (signature == null)
+            return;
+        for (int band = 0; band < bands; band++) {
+            long key = bandKey(signature, band);
+            HashSet<Integer> bucket = buckets.get(band).get(key);
+            bucket.remove(bookId);
+            if (bucket.isEmpty())
+                buckets.get(band).remove(key);
+        }
+    }
+
+    /**
+     * @param bookId id of an indexed book
+     * @return the books sharing a bucket with the book in any band, empty if the book is not indexed
+     */
+    public synchronized HashSet<Integer> candidates(int bookId) {
+        HashSet<Integer> candidates = new HashSet<>();
+        int[] signature = signatures.get(bookId);
+        if (signature == null)
+            return candidates;
+        for (int band = 0; band < bands; band++)
+            candidates.addAll(buckets.get(band).get(bandKey(signature, band)));
+        candidates.remove(bookId);
+        return candidates;
+    }
+
+    public synchronized int size() {
+        return signatures.size();
+    }
+
+    private void add(int bookId, int[] signature) {
+        signatures.put(bookId, signature);
+        for (int band = 0; band < bands; band++)
+            buckets.get(band).computeIfAbsent(bandKey(signature, band), key -> new HashSet<>()).add(bookId);
+    }
+
+    private long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int row = band * rows; row < (band + 1) * rows; row++)
+            key = mix(key * 31 + signature[row]);
+        return key;
+    }
+
+    /**
+     * consistent weighted sampling: for each hash function, every stem of weight w draws r, c ~ Gamma(2, 1) and
+     * beta ~ Uniform(0, 1) from its hash, and the stem of smallest c / (y * e^r), with
+     * y = e^(r * (floor(ln(w) / r + beta) - beta)), is sampled along with its quantized weight
+     * @return the signature of the table, or null if the table has no stem of positive weight
+     */
+    private int[] signature(Postings table, long[] stemHashes) {
+        int numberOfHashes = bands * rows;
+        int[] signature = new int[numberOfHashes];
+        double[] best = new double[numberOfHashes];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        boolean sampled = false;
+        for (int i = 0; i < table.size(); i++) {
+            float weight = table.score(i);
+            if (!(weight > 0))
+                continue;
+            sampled = true;
+            double logWeight = Math.log(weight);
+            long stemHash = stemHashes[table.id(i)];
+            for (int h = 0; h < numberOfHashes; h++) {
+                long seed = mix(stemHash + 0x9E3779B97F4A7C15L * (h + 1));
+                double r = -Math.log(uniform(seed) * uniform(seed = mix(seed)));
+                double c = -Math.log(uniform(seed = mix(seed)) * uniform(seed = mix(seed)));
+                double beta = uniform(mix(seed));
+                double t = Math.floor(logWeight / r + beta);
+                // logarithm of c / (y * e^r)
+                double logA = Math.log(c) - r * (t - beta) - r;
+                if (logA < best[h]) {
+                    best[h] = logA;
+                    signature[h] = (int) mix(stemHash * 31 + (long) t);
+                }
+            }
+        }
+        return sampled ? signature : null;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of each stem, the identity of a stem whatever its ordinal
+     */
+    private static long[] stemHashes(List<String> stems) {
+        long[] hashes = new long[stems.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            String stem = stems.get(i);
+            long hash = 0xCBF29CE484222325L;
+            for (int j = 0; j < stem.length(); j++) {
+                hash ^= stem.charAt(j);
+                hash *= 0x100000001B3L;
+            }
+            hashes[i] = hash;
+        }
+        return hashes;
+    }
+
+    /**
+     * finalizer of SplitMix64, a bijection spreading every bit of its input over its output
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return a uniform value in (0, 1) from the 53 high bits of a hash
+     */
+    private static double uniform(long hash) {
+        return ((hash >>> 11) + 0.5) * 0x1.0p-53;
+    }
+}
@@ -0,0 +1,149 @@
+package com.sorbonne.book_search_engine.algorithms.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The k nearest books of every book by Jaccard distance, in compressed sparse row layout:
+ * the neighbours of the book of ordinal b are neighbors[offsets[b], offsets[b + 1]), nearest first,
+ * with their distance at the same index in distances. Books are numbered by ascending id.
+ *
+ * File layout (big endian):
+ * <pre>
+ * header     magic, version, #books, k, #neighbours
+ * IDS        int[#books]          ids of books, ascending
+ * OFFSETS    int[#books + 1]      first neighbour of each book
+ * NEIGHBORS  int[#neighbours]     ids of the neighbours of each book, nearest first
+ * DISTANCES  float[#neighbours]   distance of each neighbour
+ * </pre>
+ */
+public final class NearestNeighborGraph {
+    private static final int MAGIC = 0x424B4E4E;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 5 * Integer.BYTES;
+
+    private final int k;
+    private final int[] ids;
+    private final int[] offsets;
+    private final int[] neighbors;
+    private final float[] distances;
+
+    /**
+     * @param k the greatest number of neighbours of a book
+     * @param ids ids of books, ascending
+     * @param offsets first neighbour of each book, and the number of neighbours at the end
+     * @param neighbors ids of the neighbours of each book, nearest first
+     * @param distances distance of each neighbour
+     */
+    public NearestNeighborGraph(int k, int[] ids, int[] offsets, int[] neighbors, float[] distances) {
+        this.k = k;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        this.distances = distances;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param bookId id of a book
+     * @return the ordinal of the book, or -1 if the book is not in the graph
+     */
+    public int ordinal(int bookId) {
+        int book = Arrays.binarySearch(ids, bookId);
+        return book < 0 ? -1 : book;
+    }
+
+    /**
+     * neighbours of a book are in [neighborsStart(book), neighborsEnd(book)), nearest first
+     */
+    public int neighborsStart(int bookOrdinal) {
+        return offsets[bookOrdinal];
+    }
+
+    public int neighborsEnd(int bookOrdinal) {
+        return offsets[bookOrdinal + 1];
+    }
+
+    public int neighbor(int entry) {
+        return neighbors[entry];
+    }
+
+    public float distance(int entry) {
+        return distances[entry];
+    }
+
+    /**
+     * write the graph to a temporary file then move it to `path`
+     * @param path the graph file
+     * @throws IOException when error while writing the file occurs
+     */
+    public void write(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.length);
+            out.writeInt(k);
+            out.writeInt(neighbors.length);
+            for (int id : ids)
+                out.writeInt(id);
+            for (int offset : offsets)
+                out.writeInt(offset);
+            for (int neighbor : neighbors)
+                out.writeInt(neighbor);
+            for (float distance : distances)
+                out.writeFloat(distance);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * read a graph file written by {@link #write(Path)}, its arrays being copied from the mapped file
+     * @param path the graph file
+     * @return the graph
+     * @throws IOException when the file cannot be read or is not a graph of the supported version
+     */
+    public static NearestNeighborGraph read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            DataInputStream header = new DataInputStream(Channels.newInputStream(channel));
+            if (header.readInt() != MAGIC)
+                throw new IOException(path + " is not a k-NN graph");
+            int version = header.readInt();
+            if (version != VERSION)
+                throw new IOException(path + " has k-NN graph version " + version + ", expected " + VERSION);
+            int numberOfBooks = header.readInt();
+            int k = header.readInt();
+            int numberOfNeighbors = header.readInt();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, channel.size() - HEADER_LENGTH);
+            int[] ids = new int[numberOfBooks];
+            int[] offsets = new int[numberOfBooks + 1];
+            int[] neighbors = new int[numberOfNeighbors];
+            float[] distances = new float[numberOfNeighbors];
+            buffer.asIntBuffer().get(ids);
+            buffer.position(buffer.position() + 4 * ids.length);
+            buffer.asIntBuffer().get(offsets);
+            buffer.position(buffer.position() + 4 * offsets.length);
+            buffer.asIntBuffer().get(neighbors);
+            buffer.position(buffer.position() + 4 * neighbors.length);
+            buffer.asFloatBuffer().get(distances);
+            return new NearestNeighborGraph(k, ids, offsets, neighbors, distances);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.sorbonne.book_search_engine.algorithms.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Weighted PageRank of the books of a {@link SimilarityGraph}, by power iteration.
+ * A random reader goes from a book to one of its similar books with a probability proportional to their similarity,
+ * or, with probability 1 - damping or from a book without any similar book, to any book of the library.
+ * The graph being undirected, the rank a book receives is pulled from its own edges, so every book of an iteration
+ * is computed independently of the others, in parallel, over primitive arrays only.
+ */
+public final class PageRank {
+
+    private PageRank() {
+    }
+
+    /**
+     * @param graph the similarity graph of books
+     * @param damping probability of following an edge, 0.85 in the original PageRank
+     * @param tolerance sum of the changes of the ranks under which the iterations stop
+     * @param maxIterations greatest number of iterations
+     * @param parallelism number of threads computing an iteration
+     * @return the rank of each book by ordinal in the graph, ranks summing to 1
+     */
+    public static double[] compute(SimilarityGraph graph, double damping, double tolerance, int maxIterations,
+                                   int parallelism) {
+        int n = graph.size();
+        if (n == 0)
+            return new double[0];
+        // inverse of the sum of the weights of the edges of each book, 0 for a dangling book
+        double[] inverseStrengths = new double[n];
+        for (int book = 0; book < n; book++) {
+            double strength = 0;
+            for (int edge = graph.edgesStart(book); edge < graph.edgesEnd(book); edge++)
+                strength += graph.weight(edge);
+            inverseStrengths[book] = strength > 0 ? 1 / strength : 0;
+        }
+
+        double[] ranks = new double[n];
+        Arrays.fill(ranks, 1.0 / n);
+        double[] next = new double[n];
+        // share of the rank of each book given to each unit of weight of its edges
+        double[] shares = new double[n];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int iteration = 0; iteration < maxIterations; iteration++) {
+                double dangling = 0;
+                for (int book = 0; book < n; book++) {
+                    if (inverseStrengths[book] == 0)
+                        dangling += ranks[book];
+                    shares[book] = ranks[book] * inverseStrengths[book];
+                }
+                double teleport = ((1 - damping) + damping * dangling) / n;
+                double[] current = ranks;
+                double[] updated = next;
+                double change = pool.submit(() -> IntStream.range(0, n).parallel().mapToDouble(book -> {
+                    double received = 0;
+                    for (int edge = graph.edgesStart(book); edge < graph.edgesEnd(book); edge++)
+                        received += graph.weight(edge) * shares[graph.target(edge)];
+                    updated[book] = teleport + damping * received;
+                    return Math.abs(updated[book] - current[book]);
+                }).sum()).get();
+                next = ranks;
+                ranks = updated;
+                if (change < tolerance)
+                    break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("computation of PageRank interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("computation of PageRank failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return ranks;
+    }
+}
@@ -0,0 +1,83 @@
+package com.sorbonne.book_search_engine.algorithms.graph;
+
+import java.util.Arrays;
+
+/**
+ * Undirected graph of the books linking every pair of books closer than a distance threshold, weighted by
+ * their similarity (1 - Jaccard distance), in compressed sparse row layout:
+ * the edges of the book of ordinal b are targets[offsets[b], offsets[b + 1]), by ascending ordinal,
+ * with the Jaccard distance of their books at the same index in distances. Every edge is stored in both directions.
+ * Books are numbered by ascending id.
+ */
+public final class SimilarityGraph {
+    private final int[] ids;
+    private final int[] offsets;
+    private final int[] targets;
+    private final float[] distances;
+
+    /**
+     * @param ids ids of books, ascending
+     * @param offsets first edge of each book, and the number of edges at the end
+     * @param targets ordinal of the other book of each edge
+     * @param distances Jaccard distance of the books of each edge
+     */
+    public SimilarityGraph(int[] ids, int[] offsets, int[] targets, float[] distances) {
+        this.ids = ids;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.distances = distances;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return the number of edges, each edge being counted in both directions
+     */
+    public int getNumberOfEdges() {
+        return targets.length;
+    }
+
+    public int id(int bookOrdinal) {
+        return ids[bookOrdinal];
+    }
+
+    /**
+     * @param bookId id of a book
+     * @return the ordinal of the book, or -1 if the book is not in the graph
+     */
+    public int ordinal(int bookId) {
+        int book = Arrays.binarySearch(ids, bookId);
+        return book < 0 ? -1 : book;
+    }
+
+    /**
+     * edges of a book are in [edgesStart(book), edgesEnd(book))
+     */
+    public int edgesStart(int bookOrdinal) {
+        return offsets[bookOrdinal];
+    }
+
+    public int edgesEnd(int bookOrdinal) {
+        return offsets[bookOrdinal + 1];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    /**
+     * @return the similarity of the books of the edge, 1 - their distance
+     */
+    public float weight(int edge) {
+        return 1 - distances[edge];
+    }
+
+    /**
+     * @return the Jaccard distance of the books of the edge
+     */
+    public float distance(int edge) {
+        return distances[edge];
+    }
+}
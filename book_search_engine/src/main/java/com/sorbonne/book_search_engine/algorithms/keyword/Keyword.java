@@ -17,6 +17,10 @@ public class Keyword implements Comparable<Keyword>, Serializable {
 
     private Set<String> words;
 
+    // positions of the words of this stem in the book, counting every word including stop words,
+    // only when the extractor keeps positions
+    private int[] positions;
+
     @Override
     public int compareTo(Keyword o) {
         return -(relevance.compareTo(o.getRelevance()));
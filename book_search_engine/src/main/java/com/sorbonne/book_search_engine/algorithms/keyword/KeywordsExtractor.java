@@ -19,9 +19,20 @@ public class KeywordsExtractor {
     private final HashMultiset<String> stemmedWords = HashMultiset.create();
     private final Multimap<String, String> wordsByStem = ArrayListMultimap.create();
     private final StringBuilder currentWord = new StringBuilder();
+    private final boolean extractPositions;
+    private final Map<String, PositionList> positionsByStem = new HashMap<>();
 
     public KeywordsExtractor(StemmerLanguage stemmerLanguage){
+        this(stemmerLanguage, false);
+    }
+
+    /**
+     * @param stemmerLanguage the language of the books
+     * @param extractPositions whether the positions of the words of each keyword are kept, for phrase queries
+     */
+    public KeywordsExtractor(StemmerLanguage stemmerLanguage, boolean extractPositions){
         this.stemmer = stemmerLanguage.getStemmer();
+        this.extractPositions = extractPositions;
         this.readAlphabet(stemmerLanguage);
         this.readStopWords(stemmerLanguage);
     }
@@ -70,6 +81,14 @@ public class KeywordsExtractor {
         }
     }
 
+    /**
+     * @return the number of words of the last extracted book, stop words excluded,
+     * which is the length the relevance of its keywords is relative to
+     */
+    public int getTotalWordsCount() {
+        return stemmedWords.size();
+    }
+
     /**
      * Extract a list of keywords for a book
      * @param text the book in format of text
@@ -81,8 +100,10 @@ public class KeywordsExtractor {
 
         stemmedWords.clear();
         wordsByStem.clear();
+        positionsByStem.clear();
         currentWord.setLength(0);
 
+        int position = 0;
         int ci = reader.read();
         boolean isNewSentence = true;
         boolean stemCurrentWord = true;
@@ -107,7 +128,11 @@ public class KeywordsExtractor {
                     }
                     wordsByStem.put(stemmedWord, word);
                     stemmedWords.add(stemmedWord);
+                    if (extractPositions)
+                        positionsByStem.computeIfAbsent(stemmedWord, stem -> new PositionList()).add(position);
                 }
+                if (!word.isEmpty())
+                    position++;
 
                 if (c == '.') {
                     isNewSentence = true;
@@ -134,6 +159,29 @@ public class KeywordsExtractor {
             relevanceSum += result.get(i).getRelevance();
             i++;
         }
-        return result.subList(0, Math.max(1, i - 1));
+        List<Keyword> keywords = result.subList(0, Math.max(1, i - 1));
+        if (extractPositions) {
+            for (Keyword keyword : keywords)
+                keyword.setPositions(positionsByStem.get(keyword.getStem()).toArray());
+        }
+        return keywords;
+    }
+
+    /**
+     * growable array of positions, in ascending order
+     */
+    private static final class PositionList {
+        private int[] positions = new int[4];
+        private int size;
+
+        void add(int position) {
+            if (size == positions.length)
+                positions = Arrays.copyOf(positions, size * 2);
+            positions[size++] = position;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(positions, size);
+        }
     }
 }
@@ -14,7 +14,14 @@ import java.util.List;
  */
 @Data
 public class KeywordDictionary implements Serializable {
+    // the version of keywordsDictionary.ser files written before keywordPositions and bookLengths, which are then null
+    private static final long serialVersionUID = -2654008475656466555L;
+
     private final HashMap<String, String> word2Keyword;
     private final HashMap<String, HashMap<Integer, Double>> keywordInBooks;
     private final HashMap<Integer, HashMap<String, Double>> keywordBookTable;
+    // positions of each stem in each book, empty when positions are not extracted
+    private final HashMap<String, HashMap<Integer, int[]>> keywordPositions;
+    // number of words of each book, stop words excluded
+    private final HashMap<Integer, Integer> bookLengths;
 }
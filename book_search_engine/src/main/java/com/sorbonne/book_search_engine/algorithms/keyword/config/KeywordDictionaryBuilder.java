@@ -0,0 +1,148 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.config;
+
+import com.sorbonne.book_search_engine.algorithms.keyword.Keyword;
+import com.sorbonne.book_search_engine.algorithms.keyword.KeywordsExtractor;
+import com.sorbonne.book_search_engine.algorithms.keyword.StemmerLanguage;
+import com.sorbonne.book_search_engine.entity.Book;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Builds a {@link KeywordDictionary} by running books through a {@link KeywordsExtractor}.
+ * Every thread owns its own extractors (and so its own stemmers), so that {@link KeywordIndexBuilder} extracts
+ * books on the threads of its pool without any shared lock, and merges the partial dictionaries in the order
+ * of the books with {@link #merge}: the result is the same as the build of all the books on one thread.
+ */
+@Slf4j
+public class KeywordDictionaryBuilder {
+    private final ThreadLocal<KeywordsExtractor> extractorEn;
+    private final ThreadLocal<KeywordsExtractor> extractorFr;
+
+    public KeywordDictionaryBuilder() {
+        this(false);
+    }
+
+    /**
+     * @param extractPositions whether the positions of keywords in books are kept, for phrase queries
+     */
+    public KeywordDictionaryBuilder(boolean extractPositions) {
+        extractorEn = ThreadLocal.withInitial(() -> new KeywordsExtractor(StemmerLanguage.ENGLISH, extractPositions));
+        extractorFr = ThreadLocal.withInitial(() -> new KeywordsExtractor(StemmerLanguage.FRENCH, extractPositions));
+    }
+
+    /**
+     * build the dictionary on the calling thread
+     * @param books the books of the library
+     * @return a Keyword Dictionary
+     */
+    public KeywordDictionary build(Collection<Book> books) {
+        KeywordDictionary dictionary = emptyDictionary();
+        for (Book book : books)
+            addBook(dictionary, book);
+        return dictionary;
+    }
+
+    /**
+     * extract the keywords of one book and add them to the dictionary
+     * @param dictionary the dictionary to complete
+     * @param book the book to index, its text being in books/<id>.txt
+     */
+    public void addBook(KeywordDictionary dictionary, Book book) {
+        int bookId = book.getId();
+        String bookText = "books/" + bookId + ".txt";
+        List<Keyword> keywords;
+        KeywordsExtractor extractor;
+        try (FileReader reader = new FileReader(bookText)) {
+            if (book.getLanguages().contains("en")) {
+                extractor = extractorEn.get();
+            } else if (book.getLanguages().contains("fr")) {
+                extractor = extractorFr.get();
+            } else {
+                return;
+            }
+            keywords = extractor.extract(reader);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        HashMap<String, String> word2Keyword = dictionary.getWord2Keyword();
+        HashMap<String, HashMap<Integer, Double>> keywordInBooks = dictionary.getKeywordInBooks();
+        HashMap<String, Double> stemRelevanceMap = dictionary.getKeywordBookTable().computeIfAbsent(bookId, id -> new HashMap<>());
+        dictionary.getBookLengths().put(bookId, extractor.getTotalWordsCount());
+        for (Keyword keyword : keywords) {
+            String stem = keyword.getStem();
+            double relevance = keyword.getRelevance();
+            // word2Keyword
+            for (String word : keyword.getWords()) {
+                word2Keyword.put(word, stem);
+            }
+            // keywordInBooks
+            keywordInBooks.computeIfAbsent(stem, s -> new HashMap<>()).put(bookId, relevance);
+            // keywordBookTable, in fact, a reverse version of keywordInBooks
+            stemRelevanceMap.put(stem, relevance);
+            // keywordPositions
+            if (keyword.getPositions() != null)
+                dictionary.getKeywordPositions().computeIfAbsent(stem, s -> new HashMap<>()).put(bookId, keyword.getPositions());
+        }
+    }
+
+    private static KeywordDictionary emptyDictionary() {
+        return new KeywordDictionary(new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>());
+    }
+
+    /**
+     * merge two partial dictionaries, `right` being built from books coming after the books of `left`.
+     * the smaller maps are merged into the bigger ones, and a word found in both keeps the stem of `right`,
+     * as it would be in a serial build
+     */
+    static KeywordDictionary merge(KeywordDictionary left, KeywordDictionary right) {
+        HashMap<String, String> word2Keyword;
+        if (left.getWord2Keyword().size() >= right.getWord2Keyword().size()) {
+            word2Keyword = left.getWord2Keyword();
+            word2Keyword.putAll(right.getWord2Keyword());
+        } else {
+            word2Keyword = right.getWord2Keyword();
+            for (Map.Entry<String, String> entry : left.getWord2Keyword().entrySet())
+                word2Keyword.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+
+        HashMap<String, HashMap<Integer, Double>> keywordInBooks = mergePostings(left.getKeywordInBooks(), right.getKeywordInBooks());
+        HashMap<String, HashMap<Integer, int[]>> keywordPositions = mergePostings(left.getKeywordPositions(), right.getKeywordPositions());
+
+        HashMap<Integer, HashMap<String, Double>> keywordBookTable = bigger(left.getKeywordBookTable(), right.getKeywordBookTable());
+        keywordBookTable.putAll(keywordBookTable == left.getKeywordBookTable() ? right.getKeywordBookTable() : left.getKeywordBookTable());
+
+        HashMap<Integer, Integer> bookLengths = bigger(left.getBookLengths(), right.getBookLengths());
+        bookLengths.putAll(bookLengths == left.getBookLengths() ? right.getBookLengths() : left.getBookLengths());
+
+        return new KeywordDictionary(word2Keyword, keywordInBooks, keywordBookTable, keywordPositions, bookLengths);
+    }
+
+    /**
+     * merge maps of <Stem, map<Id_book, V>>. a book is in only one partial dictionary, so the postings of both sides never overlap
+     */
+    private static <V> HashMap<String, HashMap<Integer, V>> mergePostings(HashMap<String, HashMap<Integer, V>> left, HashMap<String, HashMap<Integer, V>> right) {
+        HashMap<String, HashMap<Integer, V>> merged = bigger(left, right);
+        HashMap<String, HashMap<Integer, V>> smaller = merged == left ? right : left;
+        for (Map.Entry<String, HashMap<Integer, V>> entry : smaller.entrySet()) {
+            HashMap<Integer, V> postings = merged.get(entry.getKey());
+            if (postings == null) {
+                merged.put(entry.getKey(), entry.getValue());
+            } else if (postings.size() >= entry.getValue().size()) {
+                postings.putAll(entry.getValue());
+            } else {
+                entry.getValue().putAll(postings);
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    private static <K, V> HashMap<K, V> bigger(HashMap<K, V> a, HashMap<K, V> b) {
+        return a.size() >= b.size() ? a : b;
+    }
+}
@@ -0,0 +1,161 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.config;
+
+import com.sorbonne.book_search_engine.algorithms.keyword.index.KeywordIndexWriter;
+import com.sorbonne.book_search_engine.entity.Book;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the keyword index file of the library in a single pass with a bounded memory (single-pass in-memory
+ * indexing): keywords of the books are extracted into an in-memory {@link KeywordDictionary} until its estimated
+ * size reaches the memory budget, then the dictionary is written as a sorted partial index file and dropped.
+ * Once every book is extracted, the partial files are merged k-way into the index file, which is the same
+ * as the one written from the dictionary of the whole library.
+ *
+ * Books are streamed to a single ForkJoinPool for the whole build, whose threads keep their extractors from a book
+ * to the next: a few books per thread are extracted ahead, each into its own dictionary, while the calling thread
+ * merges the extracted books in their order and checks the memory budget after every book.
+ */
+@Slf4j
+public class KeywordIndexBuilder {
+    // rough heap footprint of the dictionary entries, boxed keys and values and hash map nodes included
+    private static final long BYTES_PER_POSTING = 200;
+    private static final long BYTES_PER_POSITION = 4;
+    private static final long BYTES_PER_WORD = 100;
+    private static final long BYTES_PER_STEM = 150;
+    // books extracted ahead by each thread, waiting to be merged
+    private static final int BOOKS_PER_THREAD = 4;
+
+    private final KeywordDictionaryBuilder builder;
+    private final long memoryBudget;
+    private final int parallelism;
+
+    /**
+     * @param builder the builder extracting the keywords of books
+     * @param memoryBudget size in bytes over which the dictionary is written to a partial file
+     * @param parallelism number of threads extracting keywords, 1 for a serial build
+     */
+    public KeywordIndexBuilder(KeywordDictionaryBuilder builder, long memoryBudget, int parallelism) {
+        this.builder = builder;
+        this.memoryBudget = memoryBudget;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * extract the keywords of the books and write the index file
+     * @param books the books of the library, a word found in several books keeping the stem of the last one
+     * @param path the index file
+     * @throws IOException when error while writing the files occurs
+     */
+    public void build(Collection<Book> books, Path path) throws IOException {
+        Path spillDirectory = path.resolveSibling(path.getFileName() + ".spill");
+        deleteDirectory(spillDirectory);
+        List<Path> parts = new ArrayList<>();
+        // a serial build extracts the books on the calling thread
+        ForkJoinPool pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+        try {
+            // books being extracted, in the order of the books
+            Deque<Future<KeywordDictionary>> extracting = new ArrayDeque<>();
+            Iterator<Book> iterator = books.iterator();
+            KeywordDictionary dictionary = null;
+            long size = 0;
+            while (iterator.hasNext() || !extracting.isEmpty()) {
+                while (iterator.hasNext() && extracting.size() < parallelism * BOOKS_PER_THREAD) {
+                    List<Book> book = Collections.singletonList(iterator.next());
+                    extracting.add(pool == null ? CompletableFuture.completedFuture(builder.build(book)) : pool.submit(() -> builder.build(book)));
+                }
+                KeywordDictionary partial = await(extracting.poll());
+                size += estimateSize(partial);
+                dictionary = dictionary == null ? partial : KeywordDictionaryBuilder.merge(dictionary, partial);
+                if (size >= memoryBudget) {
+                    parts.add(spill(dictionary, spillDirectory, parts.size()));
+                    dictionary = null;
+                    size = 0;
+                }
+            }
+            if (parts.isEmpty()) {
+                // everything fit in memory
+                KeywordIndexWriter.write(dictionary == null ? builder.build(Collections.emptyList()) : dictionary, path);
+                return;
+            }
+            if (dictionary != null)
+                parts.add(spill(dictionary, spillDirectory, parts.size()));
+            if (parts.size() == 1) {
+                Files.move(parts.get(0), path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return;
+            }
+            long start = System.currentTimeMillis();
+            KeywordIndexWriter.merge(parts, path);
+            log.info("Merged " + parts.size() + " partial indexes of keywords in " + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+            deleteDirectory(spillDirectory);
+        }
+    }
+
+    private static KeywordDictionary await(Future<KeywordDictionary> extraction) {
+        try {
+            return extraction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("extraction of keywords interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("extraction of keywords failed", e.getCause());
+        }
+    }
+
+    private Path spill(KeywordDictionary dictionary, Path spillDirectory, int number) throws IOException {
+        Files.createDirectories(spillDirectory);
+        Path part = spillDirectory.resolve("part-" + number + ".idx");
+        log.info("Memory budget of the index build reached after " + dictionary.getKeywordBookTable().size() + " books, writing " + part);
+        KeywordIndexWriter.write(dictionary, part);
+        return part;
+    }
+
+    /**
+     * @return an estimate of the heap size of a dictionary, in bytes; stems and words shared with the dictionary
+     * it is merged into are counted twice, which keeps the estimate on the safe side
+     */
+    static long estimateSize(KeywordDictionary dictionary) {
+        long postings = 0;
+        for (HashMap<Integer, Double> books : dictionary.getKeywordInBooks().values())
+            postings += books.size();
+        long positions = 0;
+        if (dictionary.getKeywordPositions() != null) {
+            for (HashMap<Integer, int[]> books : dictionary.getKeywordPositions().values()) {
+                for (int[] values : books.values())
+                    positions += values.length;
+            }
+        }
+        // every posting is held twice, in keywordInBooks and in keywordBookTable
+        return 2 * postings * BYTES_PER_POSTING
+                + positions * BYTES_PER_POSITION
+                + dictionary.getWord2Keyword().size() * BYTES_PER_WORD
+                + dictionary.getKeywordInBooks().size() * BYTES_PER_STEM;
+    }
+
+    private static void deleteDirectory(Path directory) {
+        if (!Files.exists(directory))
+            return;
+        try {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files)
+                    Files.delete(file);
+            }
+            Files.delete(directory);
+        } catch (IOException e) {
+            log.warn("Cannot delete " + directory + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+/**
+ * Top-k retrieval of the books of a {@link SegmentedKeywordIndex} ranked by BM25.
+ * The number of books and their average length are taken from all segments, and the document frequency of a stem
+ * is its number of postings in all segments, so that a book removed or replaced still counts until segments are merged.
+ * Books are only scored when the bounds stored with each block of postings show they can enter the top k:
+ * books holding every stem skip whole blocks whose best possible score is under the k-th score (block-max pruning),
+ * and books holding any stem are found by WAND over the best possible score of each stem.
+ */
+public final class Bm25Evaluator {
+    // bounds are widened so that rounding never makes them smaller than the score they bound
+    private static final double SLACK = 1 + 1e-6;
+
+    private final SegmentedKeywordIndex.Snapshot snapshot;
+    private final double k1;
+    private final double b;
+    private final long numberOfBooks;
+    private final double averageLength;
+
+    /**
+     * @param snapshot the segments to search
+     * @param k1 saturation of the term frequency
+     * @param b normalization by the length of the book, from 0 for none to 1 for full
+     */
+    public Bm25Evaluator(SegmentedKeywordIndex.Snapshot snapshot, double k1, double b) {
+        this.snapshot = snapshot;
+        this.k1 = k1;
+        this.b = b;
+        long books = 0;
+        long length = 0;
+        for (int s = 0; s < snapshot.getNumberOfSegments(); s++) {
+            books += snapshot.getSegment(s).getNumberOfBooks();
+            length += snapshot.getSegment(s).getTotalLength();
+        }
+        numberOfBooks = books;
+        averageLength = books == 0 || length == 0 ? 1 : length / (double) books;
+    }
+
+    /**
+     * @param stem a stem
+     * @return the inverse document frequency of the stem, always positive
+     */
+    public double idf(String stem) {
+        long df = 0;
+        for (int s = 0; s < snapshot.getNumberOfSegments(); s++) {
+            KeywordIndex segment = snapshot.getSegment(s);
+            int term = segment.termOrdinal(stem);
+            if (term >= 0)
+                df += segment.postingsEnd(term) - segment.postingsStart(term);
+        }
+        return Math.log(1 + (numberOfBooks - df + 0.5) / (df + 0.5));
+    }
+
+    /**
+     * @param frequency number of occurrences of a stem in a book
+     * @param length length of the book
+     * @return the BM25 weight of the stem in the book, before its idf
+     */
+    public double weight(int frequency, int length) {
+        return frequency * (k1 + 1) / (frequency + k1 * (1 - b + b * length / averageLength));
+    }
+
+    /**
+     * @param stems stems that must all be in a book
+     * @param k number of books to return
+     * @return the k live books of best BM25 score among the books containing every stem, with their score
+     */
+    public Postings conjunctive(String[] stems, int k) {
+        TopK top = new TopK(k);
+        if (stems.length == 0)
+            return top.toPostings();
+        double[] idfs = idfs(stems);
+        for (int s = 0; s < snapshot.getNumberOfSegments(); s++) {
+            KeywordIndex segment = snapshot.getSegment(s);
+            PostingIterator[] iterators = iterators(segment, stems);
+            if (iterators == null)
+                continue;
+            while (PostingIterator.align(iterators)) {
+                if (top.isFull()) {
+                    double bound = 0;
+                    for (int i = 0; i < iterators.length; i++) {
+                        int block = iterators[i].block();
+                        bound += idfs[i] * weight(segment.blockMaxFrequency(block), segment.blockMinLength(block));
+                    }
+                    if (bound * SLACK < top.threshold()) {
+                        // no book is good enough until one of the current blocks ends
+                        int last = Integer.MAX_VALUE;
+                        for (PostingIterator iterator : iterators)
+                            last = Math.min(last, iterator.blockLastBook());
+                        if (last == Integer.MAX_VALUE)
+                            break;
+                        iterators[0].advance(last + 1);
+                        continue;
+                    }
+                }
+                int bookId = iterators[0].book();
+                if (snapshot.isLive(s, bookId)) {
+                    int length = segment.bookLength(segment.bookOrdinal(bookId));
+                    double score = 0;
+                    for (int i = 0; i < iterators.length; i++)
+                        score += idfs[i] * weight(segment.postingFrequency(iterators[i].posting(), length), length);
+                    top.offer(bookId, (float) score);
+                }
+                iterators[0].next();
+            }
+        }
+        return top.toPostings();
+    }
+
+    /**
+     * @param stems stems of which a book must hold at least one
+     * @param k number of books to return
+     * @return the k live books of best BM25 score among the books containing any stem, with their score
+     */
+    public Postings disjunctive(String[] stems, int k) {
+        TopK top = new TopK(k);
+        double[] idfs = idfs(stems);
+        for (int s = 0; s < snapshot.getNumberOfSegments(); s++) {
+            KeywordIndex segment = snapshot.getSegment(s);
+            PostingIterator[] iterators = new PostingIterator[stems.length];
+            double[] idfsOfSegment = new double[stems.length];
+            double[] bounds = new double[stems.length];
+            int size = 0;
+            for (int i = 0; i < stems.length; i++) {
+                int term = segment.termOrdinal(stems[i]);
+                if (term < 0)
+                    continue;
+                double best = 0;
+                for (int block = segment.firstBlock(term); block < segment.firstBlock(term + 1); block++)
+                    best = Math.max(best, weight(segment.blockMaxFrequency(block), segment.blockMinLength(block)));
+                iterators[size] = segment.iterator(term);
+                idfsOfSegment[size] = idfs[i];
+                bounds[size] = idfs[i] * best;
+                size++;
+            }
+            wand(s, segment, iterators, idfsOfSegment, bounds, size, top);
+        }
+        return top.toPostings();
+    }
+
+    /**
+     * WAND: cursors are kept sorted by book, and the pivot is the first cursor at which the sum of the bounds
+     * of the cursors before it reaches the k-th score. Books before the pivot cannot enter the top k and are skipped
+     */
+    private void wand(int s, KeywordIndex segment, PostingIterator[] iterators, double[] idfs, double[] bounds,
+                      int size, TopK top) {
+        int[] order = new int[size];
+        int active = 0;
+        for (int i = 0; i < size; i++) {
+            if (!iterators[i].isExhausted())
+                order[active++] = i;
+        }
+        while (active > 0) {
+            // insertion sort, cursors being almost sorted after each move
+            for (int i = 1; i < active; i++) {
+                int cursor = order[i];
+                int j = i - 1;
+                while (j >= 0 && iterators[order[j]].book() > iterators[cursor].book()) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = cursor;
+            }
+            float threshold = top.threshold();
+            double bound = 0;
+            int pivot = -1;
+            for (int i = 0; i < active && pivot < 0; i++) {
+                bound += bounds[order[i]];
+                if (bound * SLACK >= threshold)
+                    pivot = i;
+            }
+            if (pivot < 0)
+                return;
+            int pivotBook = iterators[order[pivot]].book();
+            if (iterators[order[0]].book() == pivotBook) {
+                int matching = pivot + 1;
+                while (matching < active && iterators[order[matching]].book() == pivotBook)
+                    matching++;
+                if (snapshot.isLive(s, pivotBook)) {
+                    int length = segment.bookLength(segment.bookOrdinal(pivotBook));
+                    double score = 0;
+                    for (int i = 0; i < matching; i++) {
+                        int cursor = order[i];
+                        score += idfs[cursor] * weight(segment.postingFrequency(iterators[cursor].posting(), length), length);
+                    }
+                    top.offer(pivotBook, (float) score);
+                }
+                for (int i = 0; i < matching; i++)
+                    iterators[order[i]].next();
+            } else {
+                for (int i = 0; i < pivot; i++)
+                    iterators[order[i]].advance(pivotBook);
+            }
+            int kept = 0;
+            for (int i = 0; i < active; i++) {
+                if (!iterators[order[i]].isExhausted())
+                    order[kept++] = order[i];
+            }
+            active = kept;
+        }
+    }
+
+    private double[] idfs(String[] stems) {
+        double[] idfs = new double[stems.length];
+        for (int i = 0; i < stems.length; i++)
+            idfs[i] = idf(stems[i]);
+        return idfs;
+    }
+
+    /**
+     * @return cursors on the postings of every stem in the segment, or null if a stem is not in the segment
+     */
+    private static PostingIterator[] iterators(KeywordIndex segment, String[] stems) {
+        PostingIterator[] iterators = new PostingIterator[stems.length];
+        for (int i = 0; i < stems.length; i++) {
+            int term = segment.termOrdinal(stems[i]);
+            if (term < 0)
+                return null;
+            iterators[i] = segment.iterator(term);
+        }
+        return iterators;
+    }
+}
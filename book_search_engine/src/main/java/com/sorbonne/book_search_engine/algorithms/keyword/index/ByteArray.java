@@ -0,0 +1,39 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable array of bytes, with the variable-length encoding of ints used by the index files:
+ * 7 bits per byte, lowest bits first, the high bit set on every byte but the last.
+ */
+final class ByteArray {
+    private byte[] values = new byte[32];
+    int size;
+
+    void add(byte value) {
+        if (size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    /**
+     * @param value a non negative int, written on 1 to 5 bytes
+     */
+    void addVInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            add((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        add((byte) value);
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(values, 0, size, StandardCharsets.UTF_8);
+    }
+}
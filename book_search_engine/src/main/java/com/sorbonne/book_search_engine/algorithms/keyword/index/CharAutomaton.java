@@ -0,0 +1,22 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+/**
+ * A deterministic automaton over characters, walked along the words of a {@link WordAutomaton} by
+ * {@link WordAutomaton#wordsAcceptedBy(CharAutomaton)}. A word is accepted as soon as the automaton reaches
+ * an accepting state while reading it, whatever the rest of the word.
+ */
+public interface CharAutomaton {
+    // state from which no word is accepted
+    int DEAD = -1;
+
+    int getStart();
+
+    /**
+     * @param state a state
+     * @param c a character
+     * @return the state reached from the state by the character, DEAD if no word is accepted from there
+     */
+    int next(int state, char c);
+
+    boolean isAccepting(int state);
+}
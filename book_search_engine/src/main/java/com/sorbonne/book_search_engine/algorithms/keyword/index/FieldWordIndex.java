@@ -0,0 +1,100 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the words of a short field of the books, titles or authors: the ids of the books of every word,
+ * with the {@link WordAutomaton} of the words along which the DFA of a regex is walked.
+ *
+ * Books are added and removed one at a time. The ids of a word are an immutable set replaced at every change,
+ * so that searches read the index without locks. The automaton is only built again, on the next search needing it,
+ * when words appear or disappear.
+ */
+public final class FieldWordIndex {
+    private final Map<String, Set<Integer>> books = new ConcurrentHashMap<>();
+    // automaton of the current words, null when words changed since it was built
+    private WordAutomaton automaton;
+
+    /**
+     * @param dictionary map of <word, ids of books>
+     */
+    public FieldWordIndex(Map<String, ? extends Set<Integer>> dictionary) {
+        for (Map.Entry<String, ? extends Set<Integer>> entry : dictionary.entrySet()) {
+            if (!entry.getValue().isEmpty())
+                books.put(entry.getKey(), Collections.unmodifiableSet(new HashSet<>(entry.getValue())));
+        }
+    }
+
+    /**
+     * @param word a word, in lower case
+     * @return the ids of the books of the word, empty if there is none
+     */
+    public Set<Integer> books(String word) {
+        return books.getOrDefault(word, Collections.emptySet());
+    }
+
+    /**
+     * @return the words of the index, a view following the changes
+     */
+    public Set<String> words() {
+        return Collections.unmodifiableSet(books.keySet());
+    }
+
+    /**
+     * @return the automaton of the words of the index
+     */
+    public synchronized WordAutomaton automaton() {
+        if (automaton == null)
+            automaton = WordAutomaton.of(new ArrayList<>(books.keySet()));
+        return automaton;
+    }
+
+    /**
+     * @param id the id of a book
+     * @param words the words of the field of the book
+     */
+    public synchronized void add(int id, Collection<String> words) {
+        for (String word : words) {
+            Set<Integer> ids = books.get(word);
+            if (ids == null) {
+                books.put(word, Collections.singleton(id));
+                automaton = null;
+            } else if (!ids.contains(id)) {
+                Set<Integer> added = new HashSet<>(ids);
+                added.add(id);
+                books.put(word, Collections.unmodifiableSet(added));
+            }
+        }
+    }
+
+    /**
+     * @param id the id of a book
+     * @param words the words of the field of the book when it was added
+     */
+    public synchronized void remove(int id, Collection<String> words) {
+        for (String word : words) {
+            Set<Integer> ids = books.get(word);
+            if (ids == null || !ids.contains(id))
+                continue;
+            if (ids.size() == 1) {
+                books.remove(word);
+                automaton = null;
+            } else {
+                Set<Integer> removed = new HashSet<>(ids);
+                removed.remove(id);
+                books.put(word, Collections.unmodifiableSet(removed));
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the index as a map of <word, ids of books>
+     */
+    public HashMap<String, HashSet<Integer>> toDictionary() {
+        HashMap<String, HashSet<Integer>> dictionary = new HashMap<>();
+        for (Map.Entry<String, Set<Integer>> entry : books.entrySet())
+            dictionary.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        return dictionary;
+    }
+}
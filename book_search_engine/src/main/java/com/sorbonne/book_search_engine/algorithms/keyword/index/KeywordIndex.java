@@ -0,0 +1,540 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Read-only view of a keyword index file written by {@link KeywordIndexWriter}.
+ * Every section of the file is mapped with {@link FileChannel#map}, nothing is deserialized:
+ * lookups read the term dictionary, the postings and the per-book term tables straight from the mapped buffers.
+ *
+ * File layout (big endian):
+ * <pre>
+ * header   magic, version, #terms, #words, #books, #postings, #sections, (offset, length) of each section
+ * TERM_OFFSETS    int[#terms + 1]   offsets of each stem in TERM_BYTES, stems sorted by their UTF-8 bytes
+ * TERM_BYTES      UTF-8 bytes of the stems
+ * WORD_AUTOMATON  the {@link WordAutomaton} of the words, giving the ordinal of each word in the order of its UTF-8 bytes
+ * WORD_TERMS      int[#words]       ordinal of the stem of each word
+ * POSTING_OFFSETS int[#terms + 1]   first posting of each stem
+ * POSTING_STARTS  int[#terms + 1]   first byte of each stem in POSTING_BOOKS
+ * SKIP_OFFSETS    int[#terms + 1]   first skip entry of each stem, postings of a stem being cut in blocks of BLOCK_SIZE
+ *                                   postings and every block but the first having a skip entry
+ * SKIP_BOOKS      int[#skips]       id of the last book before the block of each skip entry
+ * SKIP_POINTERS   int[#skips]       first byte of the block of each skip entry in POSTING_BOOKS
+ * BLOCK_MAX_FREQUENCIES int[#skips + #terms] greatest frequency of the stem in the books of each block,
+ *                                   block b of a stem being at SKIP_OFFSETS[term] + term + b
+ * BLOCK_MIN_LENGTHS int[#skips + #terms] smallest length of the books of each block
+ * POSTING_BOOKS   ids of books containing the stem, ascending for each stem, as variable-length deltas
+ *                 from the previous book id of the stem
+ * POSTING_SCORES  float[#postings]  relevance of the stem in the book
+ * BOOK_IDS        int[#books]       ids of indexed books, ascending
+ * BOOK_LENGTHS    int[#books]       number of words of each book, stop words excluded
+ * BOOK_OFFSETS    int[#books + 1]   first entry of each book in BOOK_TERMS
+ * BOOK_TERMS      int[#postings]    ordinals of stems of each book, ascending for each book
+ * BOOK_SCORES     float[#postings]  relevance of the stem in the book
+ * POSITION_OFFSETS int[#postings + 1] first byte of the positions of each posting in POSITION_BYTES, empty without positions
+ * POSITION_BYTES  positions of the stem in the book of each posting, as variable-length deltas from the previous position
+ * </pre>
+ * Every section is mapped as a single buffer, so that offsets into a section are ints: the file may grow over 2GB
+ * but no section may, the writer failing on a section which would.
+ */
+public final class KeywordIndex {
+    static final int MAGIC = 0x42534549;
+    static final int VERSION = 5;
+    /**
+     * number of postings of a block, the unit skipped over when intersecting postings
+     */
+    static final int BLOCK_SIZE = 128;
+    /**
+     * greatest length of a section, the limit of a single mapped buffer
+     */
+    static final long MAX_SECTION_LENGTH = Integer.MAX_VALUE;
+
+    enum Section {
+        TERM_OFFSETS, TERM_BYTES,
+        WORD_AUTOMATON, WORD_TERMS,
+        POSTING_OFFSETS, POSTING_STARTS, SKIP_OFFSETS, SKIP_BOOKS, SKIP_POINTERS,
+        BLOCK_MAX_FREQUENCIES, BLOCK_MIN_LENGTHS, POSTING_BOOKS, POSTING_SCORES,
+        BOOK_IDS, BOOK_LENGTHS, BOOK_OFFSETS, BOOK_TERMS, BOOK_SCORES,
+        POSITION_OFFSETS, POSITION_BYTES
+    }
+
+    private final int numberOfTerms;
+    private final int numberOfWords;
+    private final int numberOfBooks;
+    private final int numberOfPostings;
+
+    private final IntBuffer termOffsets;
+    private final ByteBuffer termBytes;
+    private final WordAutomaton words;
+    private final IntBuffer wordTerms;
+    private final IntBuffer postingOffsets;
+    private final IntBuffer postingStarts;
+    private final IntBuffer skipOffsets;
+    private final IntBuffer skipBooks;
+    private final IntBuffer skipPointers;
+    private final IntBuffer blockMaxFrequencies;
+    private final IntBuffer blockMinLengths;
+    private final ByteBuffer postingBooks;
+    private final FloatBuffer postingScores;
+    private final IntBuffer bookIds;
+    private final IntBuffer bookLengths;
+    private final long totalLength;
+    private final IntBuffer bookOffsets;
+    private final IntBuffer bookTerms;
+    private final FloatBuffer bookScores;
+    private final IntBuffer positionOffsets;
+    private final ByteBuffer positionBytes;
+
+    private KeywordIndex(int[] counts, ByteBuffer[] sections) {
+        numberOfTerms = counts[0];
+        numberOfWords = counts[1];
+        numberOfBooks = counts[2];
+        numberOfPostings = counts[3];
+        termOffsets = sections[Section.TERM_OFFSETS.ordinal()].asIntBuffer();
+        termBytes = sections[Section.TERM_BYTES.ordinal()];
+        words = new WordAutomaton(sections[Section.WORD_AUTOMATON.ordinal()], numberOfWords);
+        wordTerms = sections[Section.WORD_TERMS.ordinal()].asIntBuffer();
+        postingOffsets = sections[Section.POSTING_OFFSETS.ordinal()].asIntBuffer();
+        postingStarts = sections[Section.POSTING_STARTS.ordinal()].asIntBuffer();
+        skipOffsets = sections[Section.SKIP_OFFSETS.ordinal()].asIntBuffer();
+        skipBooks = sections[Section.SKIP_BOOKS.ordinal()].asIntBuffer();
+        skipPointers = sections[Section.SKIP_POINTERS.ordinal()].asIntBuffer();
+        blockMaxFrequencies = sections[Section.BLOCK_MAX_FREQUENCIES.ordinal()].asIntBuffer();
+        blockMinLengths = sections[Section.BLOCK_MIN_LENGTHS.ordinal()].asIntBuffer();
+        postingBooks = sections[Section.POSTING_BOOKS.ordinal()];
+        postingScores = sections[Section.POSTING_SCORES.ordinal()].asFloatBuffer();
+        bookIds = sections[Section.BOOK_IDS.ordinal()].asIntBuffer();
+        bookLengths = sections[Section.BOOK_LENGTHS.ordinal()].asIntBuffer();
+        long total = 0;
+        for (int book = 0; book < numberOfBooks; book++)
+            total += bookLengths.get(book);
+        totalLength = total;
+        bookOffsets = sections[Section.BOOK_OFFSETS.ordinal()].asIntBuffer();
+        bookTerms = sections[Section.BOOK_TERMS.ordinal()].asIntBuffer();
+        bookScores = sections[Section.BOOK_SCORES.ordinal()].asFloatBuffer();
+        positionOffsets = sections[Section.POSITION_OFFSETS.ordinal()].asIntBuffer();
+        positionBytes = sections[Section.POSITION_BYTES.ordinal()];
+    }
+
+    /**
+     * map an index file to memory, only the header is read on heap
+     * @param path the index file
+     * @return a KeywordIndex backed by the mapped file
+     * @throws IOException when the file cannot be read or is not a keyword index of the supported version
+     */
+    public static KeywordIndex open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            DataInputStream header = new DataInputStream(Channels.newInputStream(channel));
+            if (header.readInt() != MAGIC)
+                throw new IOException(path + " is not a keyword index");
+            int version = header.readInt();
+            if (version != VERSION)
+                throw new UnsupportedVersionException(path + " has index version " + version + ", expected " + VERSION);
+            int[] counts = new int[4];
+            for (int i = 0; i < counts.length; i++)
+                counts[i] = header.readInt();
+            int numberOfSections = header.readInt();
+            if (numberOfSections != Section.values().length)
+                throw new IOException(path + " has " + numberOfSections + " sections, expected " + Section.values().length);
+            ByteBuffer[] sections = new ByteBuffer[numberOfSections];
+            long[] offsets = new long[numberOfSections];
+            long[] lengths = new long[numberOfSections];
+            for (int i = 0; i < numberOfSections; i++) {
+                offsets[i] = header.readLong();
+                lengths[i] = header.readLong();
+                if (lengths[i] > MAX_SECTION_LENGTH)
+                    throw new IOException(path + " has a section " + Section.values()[i] + " of " + lengths[i]
+                            + " bytes, over the " + MAX_SECTION_LENGTH + " bytes of a mapped buffer");
+            }
+            // each section is mapped on its own, so that only a section is bound to the 2GB of a single buffer
+            for (int i = 0; i < numberOfSections; i++)
+                sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], lengths[i]);
+            return new KeywordIndex(counts, sections);
+        }
+    }
+
+    static int headerLength() {
+        return 7 * Integer.BYTES + Section.values().length * 2 * Long.BYTES;
+    }
+
+    public int getNumberOfTerms() {
+        return numberOfTerms;
+    }
+
+    public int getNumberOfWords() {
+        return numberOfWords;
+    }
+
+    public int getNumberOfBooks() {
+        return numberOfBooks;
+    }
+
+    public int getNumberOfPostings() {
+        return numberOfPostings;
+    }
+
+    /**
+     * @return the number of words of all books, stop words excluded
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * walk of a word in the word automaton
+     * @param word a word in lower case
+     * @return the ordinal of the word, or -1 if the word is not indexed
+     */
+    public int wordOrdinal(String word) {
+        return words.ordinal(word);
+    }
+
+    /**
+     * binary search of a stem in the sorted term table
+     * @param term a stem
+     * @return the ordinal of the stem, or -1 if the stem is not indexed
+     */
+    public int termOrdinal(String term) {
+        return search(term, termOffsets, termBytes, numberOfTerms);
+    }
+
+    /**
+     * @param wordOrdinal ordinal of a word
+     * @return ordinal of the stem of the word
+     */
+    public int termOfWord(int wordOrdinal) {
+        return wordTerms.get(wordOrdinal);
+    }
+
+    /**
+     * @param word a word in lower case
+     * @return ordinal of the stem of the word, or -1 if the word is not indexed
+     */
+    public int termOfWord(String word) {
+        int wordOrdinal = wordOrdinal(word);
+        return wordOrdinal < 0 ? -1 : termOfWord(wordOrdinal);
+    }
+
+    public String word(int wordOrdinal) {
+        return words.word(wordOrdinal);
+    }
+
+    public String term(int termOrdinal) {
+        return new String(termBytes(termOrdinal), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param termOrdinal ordinal of a stem
+     * @return the UTF-8 bytes of the stem, in the order of the term table
+     */
+    byte[] termBytes(int termOrdinal) {
+        int start = termOffsets.get(termOrdinal);
+        byte[] value = new byte[termOffsets.get(termOrdinal + 1) - start];
+        for (int i = 0; i < value.length; i++)
+            value[i] = termBytes.get(start + i);
+        return value;
+    }
+
+    public WordAutomaton getWordAutomaton() {
+        return words;
+    }
+
+    /**
+     * @return all indexed words in ascending order, each word being decoded from the mapped file on access
+     */
+    public List<String> words() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return word(index);
+            }
+
+            @Override
+            public int size() {
+                return numberOfWords;
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                return words.iterator();
+            }
+        };
+    }
+
+    /**
+     * @param prefix a prefix in lower case
+     * @return the indexed words starting with `prefix`, in ascending order
+     */
+    public List<String> wordsWithPrefix(String prefix) {
+        int[] range = words.prefixRange(prefix);
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return word(range[0] + index);
+            }
+
+            @Override
+            public int size() {
+                return range[1] - range[0];
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                return words.iterator(prefix);
+            }
+        };
+    }
+
+    /**
+     * postings of a stem are in [postingsStart(term), postingsEnd(term)) ordered by book id
+     */
+    public int postingsStart(int termOrdinal) {
+        return postingOffsets.get(termOrdinal);
+    }
+
+    public int postingsEnd(int termOrdinal) {
+        return postingOffsets.get(termOrdinal + 1);
+    }
+
+    /**
+     * @param termOrdinal ordinal of a stem
+     * @return a cursor on the first posting of the stem
+     */
+    public PostingIterator iterator(int termOrdinal) {
+        return new PostingIterator(postingBooks, skipBooks, skipPointers,
+                postingsStart(termOrdinal), postingsEnd(termOrdinal), postingStarts.get(termOrdinal),
+                skipOffsets.get(termOrdinal), skipOffsets.get(termOrdinal + 1), firstBlock(termOrdinal));
+    }
+
+    /**
+     * blocks of the postings of a stem are in [firstBlock(term), firstBlock(term + 1)), each holding BLOCK_SIZE postings
+     * but the last one
+     */
+    public int firstBlock(int termOrdinal) {
+        return skipOffsets.get(termOrdinal) + termOrdinal;
+    }
+
+    /**
+     * @param block a block of postings
+     * @return the greatest frequency of the stem in the books of the block
+     */
+    public int blockMaxFrequency(int block) {
+        return blockMaxFrequencies.get(block);
+    }
+
+    /**
+     * @param block a block of postings
+     * @return the smallest length of the books of the block
+     */
+    public int blockMinLength(int block) {
+        return blockMinLengths.get(block);
+    }
+
+    /**
+     * decode the postings of a stem from the mapped file
+     * @param termOrdinal ordinal of a stem
+     * @return the ids of books containing the stem with their relevance
+     */
+    public Postings postings(int termOrdinal) {
+        int start = postingsStart(termOrdinal);
+        int size = postingsEnd(termOrdinal) - start;
+        int[] ids = new int[size];
+        float[] scores = new float[size];
+        PostingIterator iterator = iterator(termOrdinal);
+        for (int i = 0; i < size; i++, iterator.next()) {
+            ids[i] = iterator.book();
+            scores[i] = postingScores.get(start + i);
+        }
+        return new Postings(ids, scores, size);
+    }
+
+    public float postingScore(int posting) {
+        return postingScores.get(posting);
+    }
+
+    /**
+     * the relevance of a stem being its number of occurrences divided by the length of the book,
+     * the number of occurrences is given back from both
+     * @param relevance relevance of a stem in a book
+     * @param length length of the book
+     * @return the number of occurrences of the stem in the book
+     */
+    static int frequency(float relevance, int length) {
+        return Math.max(1, Math.round(relevance * length));
+    }
+
+    /**
+     * @param posting a posting
+     * @param length length of the book of the posting
+     * @return the number of occurrences of the stem in the book of the posting
+     */
+    public int postingFrequency(int posting, int length) {
+        return frequency(postingScores.get(posting), length);
+    }
+
+    /**
+     * @return true if the positions of stems in books were extracted when this index was written
+     */
+    public boolean hasPositions() {
+        return positionOffsets.limit() > 0;
+    }
+
+    /**
+     * decode the positions of the stem of a posting in its book
+     * @param posting a posting
+     * @return the positions in ascending order, each word of the book counting for one position
+     */
+    public int[] positions(int posting) {
+        int end = positionsEnd(posting);
+        int[] positions = new int[end - positionsStart(posting)];
+        int size = 0;
+        int position = 0;
+        int i = positionsStart(posting);
+        while (i < end) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = positionBytes.get(i++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            position += delta;
+            positions[size++] = position;
+        }
+        return Arrays.copyOf(positions, size);
+    }
+
+    int positionsStart(int posting) {
+        return positionOffsets.get(posting);
+    }
+
+    int positionsEnd(int posting) {
+        return positionOffsets.get(posting + 1);
+    }
+
+    byte positionByte(int index) {
+        return positionBytes.get(index);
+    }
+
+    /**
+     * binary search of a book in the sorted table of book ids
+     * @param bookId id of a book
+     * @return the ordinal of the book, or -1 if the book is not indexed
+     */
+    public int bookOrdinal(int bookId) {
+        int low = 0;
+        int high = numberOfBooks - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = bookIds.get(mid);
+            if (id < bookId)
+                low = mid + 1;
+            else if (id > bookId)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    public int bookId(int bookOrdinal) {
+        return bookIds.get(bookOrdinal);
+    }
+
+    /**
+     * @param bookOrdinal ordinal of a book
+     * @return the number of words of the book, stop words excluded
+     */
+    public int bookLength(int bookOrdinal) {
+        return bookLengths.get(bookOrdinal);
+    }
+
+    /**
+     * stems of a book are in [bookTermsStart(book), bookTermsEnd(book)) ordered by term ordinal
+     */
+    public int bookTermsStart(int bookOrdinal) {
+        return bookOffsets.get(bookOrdinal);
+    }
+
+    public int bookTermsEnd(int bookOrdinal) {
+        return bookOffsets.get(bookOrdinal + 1);
+    }
+
+    /**
+     * copy the term table of a book from the mapped file
+     * @param bookOrdinal ordinal of a book
+     * @return the ordinals of the stems of the book with their relevance
+     */
+    public Postings bookTerms(int bookOrdinal) {
+        int start = bookTermsStart(bookOrdinal);
+        int size = bookTermsEnd(bookOrdinal) - start;
+        int[] ids = new int[size];
+        float[] scores = new float[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = bookTerms.get(start + i);
+            scores[i] = bookScores.get(start + i);
+        }
+        return new Postings(ids, scores, size);
+    }
+
+    public int bookTerm(int entry) {
+        return bookTerms.get(entry);
+    }
+
+    public float bookTermScore(int entry) {
+        return bookScores.get(entry);
+    }
+
+    private static int search(String key, IntBuffer offsets, ByteBuffer bytes, int size) {
+        byte[] target = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(bytes, offsets.get(mid), offsets.get(mid + 1), target);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * compare bytes[start, end) with target as unsigned bytes, which is the order used by the writer
+     */
+    private static int compare(ByteBuffer bytes, int start, int end, byte[] target) {
+        int length = Math.min(end - start, target.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = (bytes.get(start + i) & 0xFF) - (target[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return (end - start) - target.length;
+    }
+
+    /**
+     * thrown when an index file was written by another version of {@link KeywordIndexWriter}
+     */
+    public static class UnsupportedVersionException extends IOException {
+        public UnsupportedVersionException(String message) {
+            super(message);
+        }
+    }
+}
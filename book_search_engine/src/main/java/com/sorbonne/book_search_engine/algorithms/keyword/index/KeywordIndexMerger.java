@@ -0,0 +1,199 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Merges the segments of a {@link SegmentedKeywordIndex} into a single index file,
+ * keeping only the live version of every book.
+ * Terms, words and books are sorted in every segment, so they are merged k-way and streamed to a
+ * {@link StreamingIndexWriter}: the postings of a term are never all held in memory, only the ordinal
+ * given to every term of every segment is.
+ */
+final class KeywordIndexMerger {
+
+    private KeywordIndexMerger() {
+    }
+
+    /**
+     * @param snapshot the segments to merge, oldest first
+     * @param path the merged index file
+     * @throws IOException when error while writing the file occurs
+     */
+    static void merge(SegmentedKeywordIndex.Snapshot snapshot, Path path) throws IOException {
+        KeywordIndex[] segments = snapshot.segments;
+        // positions are kept only if every segment has them
+        boolean hasPositions = true;
+        for (KeywordIndex segment : segments)
+            hasPositions &= segment.hasPositions();
+
+        try (StreamingIndexWriter writer = new StreamingIndexWriter(path, hasPositions)) {
+            int[][] remap = mergeTerms(snapshot, writer, hasPositions);
+            mergeWords(segments, remap, writer);
+            mergeBooks(snapshot, remap, writer);
+            writer.finish();
+        }
+    }
+
+    /**
+     * write the live postings of every term, terms left without any live posting being dropped
+     * @return for each segment, the ordinal in the merged index of each of its stems, or -1 if dropped
+     */
+    private static int[][] mergeTerms(SegmentedKeywordIndex.Snapshot snapshot, StreamingIndexWriter writer,
+                                      boolean hasPositions) throws IOException {
+        KeywordIndex[] segments = snapshot.segments;
+        int[][] remap = new int[segments.length][];
+        // next term of each segment, ordered by its UTF-8 bytes
+        PriorityQueue<TermCursor> heads = new PriorityQueue<>(segments.length,
+                (c1, c2) -> KeywordIndexWriter.UTF8_ORDER.compare(c1.term, c2.term));
+        for (int s = 0; s < segments.length; s++) {
+            remap[s] = new int[segments[s].getNumberOfTerms()];
+            if (segments[s].getNumberOfTerms() > 0)
+                heads.add(new TermCursor(s, segments[s].termBytes(0)));
+        }
+
+        TermCursor[] group = new TermCursor[segments.length];
+        PostingIterator[] iterators = new PostingIterator[segments.length];
+        while (!heads.isEmpty()) {
+            // the segments holding the smallest term
+            byte[] term = heads.peek().term;
+            int size = 0;
+            while (!heads.isEmpty() && Arrays.equals(heads.peek().term, term)) {
+                TermCursor cursor = heads.poll();
+                iterators[size] = segments[cursor.segment].iterator(cursor.ordinal);
+                group[size++] = cursor;
+            }
+
+            // postings of the group by ascending book id, a book being live in one segment at most
+            int merged = -1;
+            while (true) {
+                int min = -1;
+                for (int i = 0; i < size; i++) {
+                    if (!iterators[i].isExhausted() && (min < 0 || iterators[i].book() < iterators[min].book()))
+                        min = i;
+                }
+                if (min < 0)
+                    break;
+                KeywordIndex segment = segments[group[min].segment];
+                int bookId = iterators[min].book();
+                if (snapshot.isLive(group[min].segment, bookId)) {
+                    if (merged < 0)
+                        merged = writer.addTerm(term);
+                    int p = iterators[min].posting();
+                    writer.addPosting(bookId, segment.postingScore(p), segment.bookLength(segment.bookOrdinal(bookId)));
+                    if (hasPositions) {
+                        for (int i = segment.positionsStart(p); i < segment.positionsEnd(p); i++)
+                            writer.addPositionByte(segment.positionByte(i));
+                    }
+                }
+                iterators[min].next();
+            }
+
+            for (int i = 0; i < size; i++) {
+                TermCursor cursor = group[i];
+                remap[cursor.segment][cursor.ordinal] = merged;
+                if (++cursor.ordinal < segments[cursor.segment].getNumberOfTerms()) {
+                    cursor.term = segments[cursor.segment].termBytes(cursor.ordinal);
+                    heads.add(cursor);
+                }
+            }
+        }
+        return remap;
+    }
+
+    /**
+     * write the words of every segment; the words of the newest segment win, as a later book wins in word2Keyword,
+     * unless their stem has no live book anymore
+     */
+    private static void mergeWords(KeywordIndex[] segments, int[][] remap, StreamingIndexWriter writer) throws IOException {
+        PriorityQueue<WordCursor> heads = new PriorityQueue<>(segments.length,
+                (c1, c2) -> KeywordIndexWriter.UTF8_ORDER.compare(c1.word, c2.word));
+        for (int s = 0; s < segments.length; s++) {
+            WordCursor cursor = new WordCursor(s, segments[s].getWordAutomaton().iterator());
+            if (cursor.next())
+                heads.add(cursor);
+        }
+        while (!heads.isEmpty()) {
+            byte[] word = heads.peek().word;
+            int newest = -1;
+            int term = -1;
+            while (!heads.isEmpty() && Arrays.equals(heads.peek().word, word)) {
+                WordCursor cursor = heads.poll();
+                int merged = remap[cursor.segment][segments[cursor.segment].termOfWord(cursor.ordinal)];
+                if (merged >= 0 && cursor.segment > newest) {
+                    newest = cursor.segment;
+                    term = merged;
+                }
+                if (cursor.next())
+                    heads.add(cursor);
+            }
+            if (term >= 0)
+                writer.addWord(word, term);
+        }
+    }
+
+    /**
+     * write the term tables of live books in ascending book id; stems of a live book all have a live posting,
+     * and ordinals of terms keep their order when remapped, so the tables stay sorted
+     */
+    private static void mergeBooks(SegmentedKeywordIndex.Snapshot snapshot, int[][] remap,
+                                    StreamingIndexWriter writer) throws IOException {
+        KeywordIndex[] segments = snapshot.segments;
+        int[] ordinals = new int[segments.length];
+        while (true) {
+            int min = -1;
+            for (int s = 0; s < segments.length; s++) {
+                if (ordinals[s] < segments[s].getNumberOfBooks()
+                        && (min < 0 || segments[s].bookId(ordinals[s]) < segments[min].bookId(ordinals[min])))
+                    min = s;
+            }
+            if (min < 0)
+                break;
+            KeywordIndex segment = segments[min];
+            int book = ordinals[min]++;
+            int bookId = segment.bookId(book);
+            if (!snapshot.isLive(min, bookId))
+                continue;
+            writer.addBook(bookId, segment.bookLength(book));
+            for (int e = segment.bookTermsStart(book); e < segment.bookTermsEnd(book); e++) {
+                int term = remap[min][segment.bookTerm(e)];
+                if (term < 0)
+                    throw new IllegalStateException("stem " + segment.term(segment.bookTerm(e)) + " of live book " + bookId + " has no live posting");
+                writer.addBookTerm(term, segment.bookTermScore(e));
+            }
+        }
+    }
+
+    private static final class TermCursor {
+        final int segment;
+        int ordinal;
+        byte[] term;
+
+        TermCursor(int segment, byte[] term) {
+            this.segment = segment;
+            this.term = term;
+        }
+    }
+
+    private static final class WordCursor {
+        final int segment;
+        final Iterator<String> words;
+        int ordinal = -1;
+        byte[] word;
+
+        WordCursor(int segment, Iterator<String> words) {
+            this.segment = segment;
+            this.words = words;
+        }
+
+        boolean next() {
+            if (!words.hasNext())
+                return false;
+            word = words.next().getBytes(StandardCharsets.UTF_8);
+            ordinal++;
+            return true;
+        }
+    }
+}
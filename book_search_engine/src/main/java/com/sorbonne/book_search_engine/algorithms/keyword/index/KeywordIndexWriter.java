@@ -0,0 +1,140 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import com.sorbonne.book_search_engine.algorithms.keyword.config.KeywordDictionary;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Writes a {@link KeywordDictionary} into the flat binary layout read by {@link KeywordIndex},
+ * and merges index files written from parts of the library.
+ */
+public final class KeywordIndexWriter {
+
+    /**
+     * order of the term and word tables: unsigned lexicographic order of the UTF-8 bytes
+     */
+    static final Comparator<byte[]> UTF8_ORDER = (a, b) -> {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    };
+
+    private KeywordIndexWriter() {
+    }
+
+    /**
+     * write the dictionary to a temporary file then move it to `path`,
+     * so that a crash while writing never leaves a truncated index behind
+     * @param dictionary the keyword dictionary built from the library
+     * @param path the index file
+     * @throws IOException when error while writing the file occurs
+     */
+    public static void write(KeywordDictionary dictionary, Path path) throws IOException {
+        HashMap<String, HashMap<Integer, Double>> keywordInBooks = dictionary.getKeywordInBooks();
+        HashMap<String, String> word2Keyword = dictionary.getWord2Keyword();
+        HashMap<Integer, HashMap<String, Double>> keywordBookTable = dictionary.getKeywordBookTable();
+        HashMap<Integer, Integer> bookLengths = dictionary.getBookLengths();
+        HashMap<String, HashMap<Integer, int[]>> keywordPositions = dictionary.getKeywordPositions();
+        boolean hasPositions = keywordPositions != null && !keywordPositions.isEmpty();
+
+        // stems without any book are dropped
+        List<String> keptTerms = new ArrayList<>();
+        for (Map.Entry<String, HashMap<Integer, Double>> entry : keywordInBooks.entrySet()) {
+            if (!entry.getValue().isEmpty())
+                keptTerms.add(entry.getKey());
+        }
+        byte[][] terms = sortedUtf8(keptTerms);
+        HashMap<String, Integer> termOrdinals = new HashMap<>();
+
+        try (StreamingIndexWriter writer = new StreamingIndexWriter(path, hasPositions)) {
+            for (byte[] bytes : terms) {
+                String term = new String(bytes, StandardCharsets.UTF_8);
+                termOrdinals.put(term, writer.addTerm(bytes));
+                HashMap<Integer, Double> postings = keywordInBooks.get(term);
+                HashMap<Integer, int[]> termPositions = hasPositions ? keywordPositions.getOrDefault(term, new HashMap<>()) : null;
+                int[] ids = postings.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+                for (int id : ids) {
+                    writer.addPosting(id, postings.get(id).floatValue(), bookLengths.getOrDefault(id, 0));
+                    if (hasPositions) {
+                        // positions of each posting, as deltas from the previous position
+                        int previous = 0;
+                        for (int value : termPositions.getOrDefault(id, new int[0])) {
+                            writeVInt(writer, value - previous);
+                            previous = value;
+                        }
+                    }
+                }
+            }
+
+            List<String> keptWords = new ArrayList<>();
+            for (Map.Entry<String, String> entry : word2Keyword.entrySet()) {
+                if (termOrdinals.containsKey(entry.getValue()))
+                    keptWords.add(entry.getKey());
+            }
+            for (byte[] word : sortedUtf8(keptWords))
+                writer.addWord(word, termOrdinals.get(word2Keyword.get(new String(word, StandardCharsets.UTF_8))));
+
+            int[] bookIds = keywordBookTable.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+            for (int bookId : bookIds) {
+                writer.addBook(bookId, bookLengths.getOrDefault(bookId, 0));
+                HashMap<String, Double> table = keywordBookTable.get(bookId);
+                int[] ordinals = new int[table.size()];
+                int i = 0;
+                for (String stem : table.keySet()) {
+                    Integer ordinal = termOrdinals.get(stem);
+                    if (ordinal == null)
+                        throw new IllegalStateException("inconsistent table of book " + bookId);
+                    ordinals[i++] = ordinal;
+                }
+                Arrays.sort(ordinals);
+                for (int ordinal : ordinals)
+                    writer.addBookTerm(ordinal, table.get(new String(terms[ordinal], StandardCharsets.UTF_8)).floatValue());
+            }
+            writer.finish();
+        }
+    }
+
+    /**
+     * merge index files written from disjoint sets of books into a single index file, as when an index is built
+     * in several parts; a book found in several parts is taken from the last one
+     * @param parts the index files, in the order of their books
+     * @param path the merged index file
+     * @throws IOException when error while reading the parts or writing the file occurs
+     */
+    public static void merge(List<Path> parts, Path path) throws IOException {
+        KeywordIndex[] segments = new KeywordIndex[parts.size()];
+        HashMap<Integer, Integer> owners = new HashMap<>();
+        for (int s = 0; s < segments.length; s++) {
+            segments[s] = KeywordIndex.open(parts.get(s));
+            if (s == 0)
+                continue;
+            for (int book = 0; book < segments[s].getNumberOfBooks(); book++)
+                owners.put(segments[s].bookId(book), s);
+        }
+        KeywordIndexMerger.merge(new SegmentedKeywordIndex.Snapshot(segments, owners), path);
+    }
+
+    private static byte[][] sortedUtf8(Collection<String> values) {
+        byte[][] result = new byte[values.size()][];
+        int i = 0;
+        for (String value : values)
+            result[i++] = value.getBytes(StandardCharsets.UTF_8);
+        Arrays.sort(result, UTF8_ORDER);
+        return result;
+    }
+
+    private static void writeVInt(StreamingIndexWriter writer, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            writer.addPositionByte((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writer.addPositionByte((byte) value);
+    }
+}
@@ -0,0 +1,143 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Matches a phrase against the positions stored in the segments of a {@link SegmentedKeywordIndex}:
+ * books are first found by intersecting the postings of the stems of the phrase,
+ * then the positions of these stems in each book are checked, so that books are never read again.
+ */
+public final class PhraseMatcher {
+    private final String[] stems;
+    private final int[] offsets;
+    private final int slop;
+    // each distinct stem of the phrase by the index of its first occurrence in `stems`, and its number of occurrences
+    private final int[] distinct;
+    private final int[] occurrences;
+
+    /**
+     * @param stems stems of the phrase
+     * @param offsets position of each stem in the phrase, words unknown to the index being skipped
+     * @param slop 0 to match the exact phrase, or the number of extra words allowed in a window
+     *             holding every stem of the phrase in any order
+     */
+    public PhraseMatcher(String[] stems, int[] offsets, int slop) {
+        this.stems = stems;
+        this.offsets = offsets;
+        this.slop = slop;
+        // stem -> {index of its first occurrence, number of occurrences}
+        Map<String, int[]> counts = new LinkedHashMap<>();
+        for (int i = 0; i < stems.length; i++) {
+            int first = i;
+            counts.computeIfAbsent(stems[i], stem -> new int[]{first, 0})[1]++;
+        }
+        distinct = new int[counts.size()];
+        occurrences = new int[counts.size()];
+        int g = 0;
+        for (int[] count : counts.values()) {
+            distinct[g] = count[0];
+            occurrences[g++] = count[1];
+        }
+    }
+
+    /**
+     * @param snapshot the segments to search
+     * @return the live books matching the phrase, scored by the number of matches in the book
+     */
+    public Postings match(SegmentedKeywordIndex.Snapshot snapshot) {
+        Postings.Builder result = new Postings.Builder();
+        if (stems.length == 0)
+            return result.build();
+        for (int s = 0; s < snapshot.getNumberOfSegments(); s++) {
+            KeywordIndex segment = snapshot.getSegment(s);
+            if (!segment.hasPositions())
+                continue;
+            PostingIterator[] iterators = new PostingIterator[stems.length];
+            boolean found = true;
+            for (int i = 0; i < stems.length && found; i++) {
+                int term = segment.termOrdinal(stems[i]);
+                found = term >= 0;
+                if (found)
+                    iterators[i] = segment.iterator(term);
+            }
+            if (!found)
+                continue;
+            matchSegment(snapshot, s, segment, iterators, result);
+        }
+        return result.build();
+    }
+
+    /**
+     * leapfrog intersection of the postings of all stems, every cursor being moved to the greatest book seen so far
+     */
+    private void matchSegment(SegmentedKeywordIndex.Snapshot snapshot, int s, KeywordIndex segment, PostingIterator[] iterators,
+                              Postings.Builder result) {
+        int[][] positions = new int[iterators.length][];
+        while (PostingIterator.align(iterators)) {
+            int bookId = iterators[0].book();
+            if (snapshot.isLive(s, bookId)) {
+                boolean empty = false;
+                for (int i = 0; i < iterators.length; i++) {
+                    positions[i] = segment.positions(iterators[i].posting());
+                    empty |= positions[i].length == 0;
+                }
+                int matches = empty ? 0 : slop == 0 ? countPhrases(positions) : countWindows(positions);
+                if (matches > 0)
+                    result.add(bookId, matches);
+            }
+            iterators[0].next();
+        }
+    }
+
+    /**
+     * @return number of positions p such that every stem i is at p + offsets[i]
+     */
+    private int countPhrases(int[][] positions) {
+        int[] indexes = new int[positions.length];
+        int matches = 0;
+        for (int start : positions[0]) {
+            int origin = start - offsets[0];
+            boolean match = true;
+            for (int i = 1; i < positions.length && match; i++) {
+                int target = origin + offsets[i];
+                while (indexes[i] < positions[i].length && positions[i][indexes[i]] < target)
+                    indexes[i]++;
+                match = indexes[i] < positions[i].length && positions[i][indexes[i]] == target;
+            }
+            if (match)
+                matches++;
+        }
+        return matches;
+    }
+
+    /**
+     * sweep of the positions of all stems in ascending order, always moving the smallest one.
+     * a stem found n times in the phrase needs n distinct positions in a window, the n positions from its current one
+     * @return number of windows holding every stem and not wider than the phrase plus `slop` words
+     */
+    private int countWindows(int[][] positions) {
+        int width = Arrays.stream(offsets).max().getAsInt() - Arrays.stream(offsets).min().getAsInt() + slop;
+        for (int g = 0; g < distinct.length; g++) {
+            if (positions[distinct[g]].length < occurrences[g])
+                return 0;
+        }
+        int[] indexes = new int[distinct.length];
+        int matches = 0;
+        while (true) {
+            int min = 0;
+            int max = Integer.MIN_VALUE;
+            for (int g = 0; g < distinct.length; g++) {
+                int[] stemPositions = positions[distinct[g]];
+                if (stemPositions[indexes[g]] < positions[distinct[min]][indexes[min]])
+                    min = g;
+                max = Math.max(max, stemPositions[indexes[g] + occurrences[g] - 1]);
+            }
+            if (max - positions[distinct[min]][indexes[min]] <= width)
+                matches++;
+            if (++indexes[min] + occurrences[min] > positions[distinct[min]].length)
+                return matches;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Forward cursor over the compressed postings of a stem in a {@link KeywordIndex}.
+ * Book ids are decoded one variable-length delta at a time, and {@link #advance(int)} jumps over whole blocks
+ * by searching the skip entries of the stem, so that only the block holding the target is decoded.
+ */
+public final class PostingIterator {
+    private final ByteBuffer bytes;
+    private final IntBuffer skipBooks;
+    private final IntBuffer skipPointers;
+    private final int start;
+    private final int end;
+    private final int firstSkip;
+    private final int endSkip;
+    private final int firstBlock;
+
+    private int posting;
+    private int block;
+    private int pointer;
+    private int book;
+
+    /**
+     * a cursor on the first posting of the stem
+     */
+    PostingIterator(ByteBuffer bytes, IntBuffer skipBooks, IntBuffer skipPointers,
+                    int start, int end, int pointer, int firstSkip, int endSkip, int firstBlock) {
+        this.bytes = bytes;
+        this.skipBooks = skipBooks;
+        this.skipPointers = skipPointers;
+        this.start = start;
+        this.end = end;
+        this.firstSkip = firstSkip;
+        this.endSkip = endSkip;
+        this.firstBlock = firstBlock;
+        this.pointer = pointer;
+        posting = start;
+        if (start < end)
+            book = readVInt();
+    }
+
+    /**
+     * @return true if the cursor went past the last posting of the stem
+     */
+    public boolean isExhausted() {
+        return posting >= end;
+    }
+
+    /**
+     * @return the id of the book of the current posting
+     */
+    public int book() {
+        return book;
+    }
+
+    /**
+     * @return the current posting, to read its score or its positions in the {@link KeywordIndex}
+     */
+    public int posting() {
+        return posting;
+    }
+
+    /**
+     * @return the block of the current posting in the index, to read its bounds in the {@link KeywordIndex}
+     */
+    public int block() {
+        return firstBlock + block;
+    }
+
+    /**
+     * @return the id of the last book of the current block, or Integer.MAX_VALUE in the last block of the stem
+     */
+    public int blockLastBook() {
+        return firstSkip + block < endSkip ? skipBooks.get(firstSkip + block) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * move to the next posting
+     * @return false if there is no next posting
+     */
+    public boolean next() {
+        if (++posting >= end)
+            return false;
+        // blocks are contiguous, and the first delta of a block is taken from the last book of the previous block
+        if ((posting - start) % KeywordIndex.BLOCK_SIZE == 0)
+            block++;
+        book += readVInt();
+        return true;
+    }
+
+    /**
+     * move to the first posting whose book id is greater than or equal to `target`, never moving backwards
+     * @param target a book id
+     * @return false if there is no such posting
+     */
+    public boolean advance(int target) {
+        if (posting >= end)
+            return false;
+        if (book >= target)
+            return true;
+        // skip entry of block b is firstSkip + b - 1, holding the last book of block b - 1
+        int low = firstSkip + block;
+        if (low < endSkip && skipBooks.get(low) < target) {
+            // galloping search of the last block whose previous block ends before the target
+            int step = 1;
+            int high = low;
+            while (high < endSkip && skipBooks.get(high) < target) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, endSkip - 1);
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (skipBooks.get(mid) < target)
+                    low = mid + 1;
+                else
+                    high = mid - 1;
+            }
+            seek(low - firstSkip);
+        }
+        while (book < target) {
+            if (!next())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * position the cursor on the first posting of a block following the first one
+     */
+    private void seek(int target) {
+        block = target;
+        posting = start + target * KeywordIndex.BLOCK_SIZE;
+        pointer = skipPointers.get(firstSkip + target - 1);
+        book = skipBooks.get(firstSkip + target - 1) + readVInt();
+    }
+
+    private int readVInt() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes.get(pointer++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * leapfrog intersection step: move every cursor to the greatest book among them until they all agree
+     * @param iterators cursors on the postings of several stems
+     * @return false once any cursor is exhausted, otherwise every cursor is on the same book
+     */
+    public static boolean align(PostingIterator[] iterators) {
+        int target = -1;
+        for (PostingIterator iterator : iterators) {
+            if (iterator.isExhausted())
+                return false;
+            target = Math.max(target, iterator.book);
+        }
+        int agreeing = 0;
+        int i = 0;
+        while (agreeing < iterators.length) {
+            PostingIterator iterator = iterators[i];
+            if (!iterator.advance(target))
+                return false;
+            if (iterator.book == target) {
+                agreeing++;
+            } else {
+                target = iterator.book;
+                agreeing = 1;
+            }
+            i = (i + 1) % iterators.length;
+        }
+        return true;
+    }
+}
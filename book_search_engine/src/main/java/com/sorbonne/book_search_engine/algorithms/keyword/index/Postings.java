@@ -0,0 +1,161 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import java.util.Arrays;
+
+/**
+ * A sorted list of (id, score) pairs held in two parallel primitive arrays:
+ * the books containing a stem with their relevance, or the stems of a book with their relevance.
+ * Ids are strictly ascending.
+ */
+public final class Postings {
+    public static final Postings EMPTY = new Postings(new int[0], new float[0], 0);
+
+    private final int[] ids;
+    private final float[] scores;
+    private final int size;
+
+    Postings(int[] ids, float[] scores, int size) {
+        this.ids = ids;
+        this.scores = scores;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int id(int index) {
+        return ids[index];
+    }
+
+    public float score(int index) {
+        return scores[index];
+    }
+
+    /**
+     * @param id an id
+     * @return the index of the id, or a negative value if the id is not in the list
+     */
+    public int indexOf(int id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+    /**
+     * intersection by galloping: every id of the shorter list is searched in the longer one by an exponential
+     * then a binary search starting after the previous match, so that a short list is intersected with a long one
+     * in time proportional to the short one times the logarithm of the gaps
+     * @param other another list
+     * @return the pairs of this list whose id is also in `other`
+     */
+    public Postings intersect(Postings other) {
+        boolean thisShorter = size <= other.size;
+        Postings shorter = thisShorter ? this : other;
+        Postings longer = thisShorter ? other : this;
+        int[] resultIds = new int[shorter.size];
+        float[] resultScores = new float[resultIds.length];
+        int n = 0;
+        int low = 0;
+        for (int i = 0; i < shorter.size && low < longer.size; i++) {
+            int id = shorter.ids[i];
+            int step = 1;
+            int high = low;
+            while (high < longer.size && longer.ids[high] < id) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int index = Arrays.binarySearch(longer.ids, low, Math.min(high + 1, longer.size), id);
+            if (index >= 0) {
+                resultIds[n] = id;
+                resultScores[n] = thisShorter ? scores[i] : scores[index];
+                n++;
+                low = index + 1;
+            } else {
+                low = -index - 1;
+            }
+        }
+        return new Postings(resultIds, resultScores, n);
+    }
+
+    /**
+     * @param k number of pairs to keep
+     * @return the k pairs of greatest score, selected on a bounded heap instead of sorting every pair
+     */
+    public Postings top(int k) {
+        if (k >= size)
+            return this;
+        TopK top = new TopK(k);
+        for (int i = 0; i < size; i++)
+            top.offer(ids[i], scores[i]);
+        return top.toPostings();
+    }
+
+    /**
+     * @return the indexes of the pairs ordered by descending score, pairs of the same score being in ascending id
+     */
+    public int[] indexesByScore() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = ((long) ~sortableBits(scores[i]) << 32) | i;
+        Arrays.sort(keys);
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++)
+            indexes[i] = (int) keys[i];
+        return indexes;
+    }
+
+    /**
+     * @return the ids ordered by descending score
+     */
+    public int[] idsByScore() {
+        int[] indexes = indexesByScore();
+        for (int i = 0; i < indexes.length; i++)
+            indexes[i] = ids[indexes[i]];
+        return indexes;
+    }
+
+    /**
+     * bits of a float as an int having the same order as the float
+     */
+    static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+
+    /**
+     * Collects pairs in any order, then sorts them by id.
+     */
+    public static final class Builder {
+        private long[] pairs = new long[8];
+        private int size;
+
+        public Builder add(int id, float score) {
+            if (size == pairs.length)
+                pairs = Arrays.copyOf(pairs, size * 2);
+            pairs[size++] = ((long) id << 32) | (Float.floatToRawIntBits(score) & 0xFFFFFFFFL);
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the pairs sorted by id, ids being non negative and added only once
+         */
+        public Postings build() {
+            Arrays.sort(pairs, 0, size);
+            int[] ids = new int[size];
+            float[] scores = new float[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = (int) (pairs[i] >>> 32);
+                scores[i] = Float.intBitsToFloat((int) pairs[i]);
+            }
+            return new Postings(ids, scores, size);
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import com.sorbonne.book_search_engine.algorithms.keyword.config.KeywordDictionary;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * A keyword index made of a main segment and small delta segments, all of them being {@link KeywordIndex} files.
+ * Adding a book writes a delta segment holding only this book, removing a book only records its id,
+ * and {@link #merge()} rewrites all segments into a new main segment.
+ *
+ * The list of segments is kept in a manifest file next to the main segment, one operation per line:
+ * <pre>
+ * main keywords.idx
+ * segment keywords.3.idx
+ * delete 1342
+ * </pre>
+ * Readers never lock: they work on the immutable {@link Snapshot} published after each change.
+ */
+@Slf4j
+public class SegmentedKeywordIndex {
+    private static final String MAIN = "main";
+    private static final String SEGMENT = "segment";
+    private static final String DELETE = "delete";
+
+    private final Path directory;
+    private final Path manifest;
+    private final String prefix;
+    private final Object mergeLock = new Object();
+    // operations after the main segment, in the order they were made
+    private final List<String[]> operations = new ArrayList<>();
+    // delta segments, one for each `segment` operation
+    private final List<KeywordIndex> deltas = new ArrayList<>();
+    private Path mainFile;
+    private int generation;
+    private volatile Snapshot snapshot;
+
+    private SegmentedKeywordIndex(Path mainFile, Path manifest) {
+        this.directory = mainFile.toAbsolutePath().getParent();
+        this.manifest = manifest;
+        this.mainFile = mainFile;
+        String name = mainFile.getFileName().toString();
+        this.prefix = name.substring(0, name.lastIndexOf('.'));
+    }
+
+    /**
+     * open the segments listed in the manifest, or only `mainFile` if there is no manifest yet
+     * @param mainFile the main segment written at the first start
+     * @param manifest the manifest of segments
+     * @return the segmented index
+     * @throws IOException when a segment cannot be mapped
+     */
+    public static SegmentedKeywordIndex open(Path mainFile, Path manifest) throws IOException {
+        SegmentedKeywordIndex index = new SegmentedKeywordIndex(mainFile, manifest);
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String[] operation = line.trim().split(" ");
+                if (operation[0].equals(MAIN)) {
+                    index.mainFile = index.directory.resolve(operation[1]);
+                } else if (operation[0].equals(SEGMENT)) {
+                    index.operations.add(operation);
+                    index.deltas.add(KeywordIndex.open(index.directory.resolve(operation[1])));
+                } else if (operation[0].equals(DELETE)) {
+                    index.operations.add(operation);
+                }
+                if (!operation[0].equals(DELETE))
+                    index.generation = Math.max(index.generation, generationOf(operation[1]));
+            }
+        }
+        index.snapshot = index.replay(KeywordIndex.open(index.mainFile));
+        return index;
+    }
+
+    /**
+     * delete the manifest and every segment of an index, e.g. before building it again
+     * @param mainFile the main segment written at the first start
+     * @param manifest the manifest of segments
+     * @throws IOException when a file cannot be deleted
+     */
+    public static void deleteFiles(Path mainFile, Path manifest) throws IOException {
+        Files.deleteIfExists(manifest);
+        String name = mainFile.getFileName().toString();
+        String prefix = name.substring(0, name.lastIndexOf('.'));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(mainFile.toAbsolutePath().getParent(), prefix + "*.idx")) {
+            for (Path file : files) {
+                if (file.getFileName().toString().equals(name) || generationOf(file.getFileName().toString()) > 0)
+                    Files.delete(file);
+            }
+        }
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return number of delta segments not merged yet into the main segment
+     */
+    public int getNumberOfDeltas() {
+        return snapshot.segments.length - 1;
+    }
+
+    /**
+     * write the keywords of some books as a new delta segment, replacing any previous version of these books
+     * @param dictionary the keyword dictionary of the books
+     * @throws IOException when error while writing the segment occurs
+     */
+    public synchronized void addSegment(KeywordDictionary dictionary) throws IOException {
+        generation++;
+        String name = prefix + "." + generation + ".idx";
+        KeywordIndexWriter.write(dictionary, directory.resolve(name));
+        KeywordIndex segment = KeywordIndex.open(directory.resolve(name));
+        String[] operation = {SEGMENT, name};
+        appendToManifest(operation);
+        operations.add(operation);
+        deltas.add(segment);
+        snapshot = replay(snapshot.segments[0]);
+    }
+
+    /**
+     * hide a book from every segment
+     * @param bookId id of the book to remove
+     * @throws IOException when error while writing the manifest occurs
+     */
+    public synchronized void delete(int bookId) throws IOException {
+        String[] operation = {DELETE, String.valueOf(bookId)};
+        appendToManifest(operation);
+        operations.add(operation);
+        snapshot = replay(snapshot.segments[0]);
+    }
+
+    /**
+     * merge every segment into a new main segment. Books can still be added or removed while the segments are merged,
+     * such operations are kept as deltas of the new main segment
+     * @throws IOException when error while writing the merged segment occurs
+     */
+    public void merge() throws IOException {
+        synchronized (mergeLock) {
+            mergeSegments();
+        }
+    }
+
+    private void mergeSegments() throws IOException {
+        Snapshot merged;
+        int mergedOperations;
+        String name;
+        synchronized (this) {
+            merged = snapshot;
+            mergedOperations = operations.size();
+            if (merged.segments.length == 1 && mergedOperations == 0)
+                return;
+            generation++;
+            name = prefix + "." + generation + ".idx";
+        }
+        long start = System.currentTimeMillis();
+        KeywordIndexMerger.merge(merged, directory.resolve(name));
+        KeywordIndex main = KeywordIndex.open(directory.resolve(name));
+
+        List<Path> obsolete = new ArrayList<>();
+        synchronized (this) {
+            obsolete.add(mainFile);
+            for (String[] operation : operations.subList(0, mergedOperations)) {
+                if (operation[0].equals(SEGMENT))
+                    obsolete.add(directory.resolve(operation[1]));
+            }
+            operations.subList(0, mergedOperations).clear();
+            deltas.subList(0, merged.segments.length - 1).clear();
+            mainFile = directory.resolve(name);
+            writeManifest();
+            snapshot = replay(main);
+        }
+        log.info("Merged " + merged.segments.length + " segments of keywords into " + name + " in " + (System.currentTimeMillis() - start) + " ms");
+        // on most systems the files of old segments can be removed while still mapped by the readers of an old snapshot
+        for (Path path : obsolete) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Cannot delete merged segment " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * rebuild the snapshot by replaying the operations made after the main segment
+     */
+    private Snapshot replay(KeywordIndex main) {
+        KeywordIndex[] segments = new KeywordIndex[deltas.size() + 1];
+        segments[0] = main;
+        HashMap<Integer, Integer> owners = new HashMap<>();
+        int segment = 0;
+        for (String[] operation : operations) {
+            if (operation[0].equals(SEGMENT)) {
+                segment++;
+                segments[segment] = deltas.get(segment - 1);
+                for (int book = 0; book < segments[segment].getNumberOfBooks(); book++)
+                    owners.put(segments[segment].bookId(book), segment);
+            } else {
+                owners.put(Integer.parseInt(operation[1]), -1);
+            }
+        }
+        return new Snapshot(segments, owners);
+    }
+
+    private void appendToManifest(String[] operation) throws IOException {
+        if (!Files.exists(manifest))
+            writeManifest();
+        try (BufferedWriter writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+            writer.write(String.join(" ", operation));
+            writer.newLine();
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        Path tmp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(MAIN + " " + mainFile.getFileName());
+            writer.newLine();
+            for (String[] operation : operations) {
+                writer.write(String.join(" ", operation));
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int generationOf(String fileName) {
+        String[] parts = fileName.split("\\.");
+        if (parts.length < 3)
+            return 0;
+        try {
+            return Integer.parseInt(parts[parts.length - 2]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * an immutable view of the segments, oldest first.
+     * A book is live in a segment if this segment holds its latest version and the book was not removed since
+     */
+    public static final class Snapshot {
+        final KeywordIndex[] segments;
+        // book id -> segment holding its latest version, or -1 if removed; books not in the map live in the main segment
+        private final HashMap<Integer, Integer> owners;
+
+        Snapshot(KeywordIndex[] segments, HashMap<Integer, Integer> owners) {
+            this.segments = segments;
+            this.owners = owners;
+        }
+
+        public int getNumberOfSegments() {
+            return segments.length;
+        }
+
+        public KeywordIndex getSegment(int segment) {
+            return segments[segment];
+        }
+
+        public boolean isLive(int segment, int bookId) {
+            Integer owner = owners.get(bookId);
+            return owner == null ? segment == 0 : owner == segment;
+        }
+
+        /**
+         * @param word a word in lower case
+         * @return the stem of the word in the newest segment knowing it, or null if the word is not indexed
+         */
+        public String stemOf(String word) {
+            for (int segment = segments.length - 1; segment >= 0; segment--) {
+                int term = segments[segment].termOfWord(word);
+                if (term >= 0)
+                    return segments[segment].term(term);
+            }
+            return null;
+        }
+
+        /**
+         * @return the words of all segments, in ascending order, without copying them
+         */
+        public Iterable<String> words() {
+            if (segments.length == 1)
+                return segments[0].words();
+            return () -> mergeWords(segment -> segment.getWordAutomaton().iterator());
+        }
+
+        /**
+         * @param prefix a prefix in lower case
+         * @return the words of all segments starting with `prefix`, in ascending order
+         */
+        public Iterable<String> wordsWithPrefix(String prefix) {
+            if (segments.length == 1)
+                return segments[0].wordsWithPrefix(prefix);
+            return () -> mergeWords(segment -> segment.getWordAutomaton().iterator(prefix));
+        }
+
+        /**
+         * @param automaton a char automaton
+         * @return the words of all segments accepted by the automaton, walked along the word automaton of each segment,
+         * each word once
+         */
+        public Collection<String> wordsAcceptedBy(CharAutomaton automaton) {
+            if (segments.length == 1)
+                return segments[0].getWordAutomaton().wordsAcceptedBy(automaton);
+            Set<String> words = new HashSet<>();
+            for (KeywordIndex segment : segments)
+                words.addAll(segment.getWordAutomaton().wordsAcceptedBy(automaton));
+            return words;
+        }
+
+        /**
+         * k-way merge of the sorted words of each segment, a word of several segments coming out once
+         */
+        private Iterator<String> mergeWords(Function<KeywordIndex, Iterator<String>> wordsOfSegment) {
+            PriorityQueue<Map.Entry<String, Iterator<String>>> heads = new PriorityQueue<>(
+                    segments.length, (e1, e2) -> compareUtf8(e1.getKey(), e2.getKey()));
+            for (KeywordIndex segment : segments) {
+                Iterator<String> iterator = wordsOfSegment.apply(segment);
+                if (iterator.hasNext())
+                    heads.add(new AbstractMap.SimpleEntry<>(iterator.next(), iterator));
+            }
+            return new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return !heads.isEmpty();
+                }
+
+                @Override
+                public String next() {
+                    if (heads.isEmpty())
+                        throw new NoSuchElementException();
+                    String word = heads.peek().getKey();
+                    while (!heads.isEmpty() && heads.peek().getKey().equals(word)) {
+                        Iterator<String> iterator = heads.poll().getValue();
+                        if (iterator.hasNext())
+                            heads.add(new AbstractMap.SimpleEntry<>(iterator.next(), iterator));
+                    }
+                    return word;
+                }
+            };
+        }
+
+        /**
+         * order of code points, which is the order of the UTF-8 bytes used by the index files
+         */
+        private static int compareUtf8(String a, String b) {
+            int i = 0;
+            int j = 0;
+            while (i < a.length() && j < b.length()) {
+                int c1 = a.codePointAt(i);
+                int c2 = b.codePointAt(j);
+                if (c1 != c2)
+                    return Integer.compare(c1, c2);
+                i += Character.charCount(c1);
+                j += Character.charCount(c2);
+            }
+            return (a.length() - i) - (b.length() - j);
+        }
+
+        /**
+         * @param stem a stem
+         * @return the live books of all segments containing the stem, with the relevance of the stem
+         */
+        public Postings postings(String stem) {
+            if (stem == null)
+                return Postings.EMPTY;
+            if (segments.length == 1 && owners.isEmpty()) {
+                int term = segments[0].termOrdinal(stem);
+                return term < 0 ? Postings.EMPTY : segments[0].postings(term);
+            }
+            Postings.Builder builder = new Postings.Builder();
+            for (int segment = 0; segment < segments.length; segment++) {
+                int term = segments[segment].termOrdinal(stem);
+                if (term < 0)
+                    continue;
+                for (PostingIterator iterator = segments[segment].iterator(term); !iterator.isExhausted(); iterator.next()) {
+                    if (isLive(segment, iterator.book()))
+                        builder.add(iterator.book(), segments[segment].postingScore(iterator.posting()));
+                }
+            }
+            return builder.build();
+        }
+
+        /**
+         * @param stem a stem
+         * @return true if a live book of any segment contains the stem
+         */
+        public boolean contains(String stem) {
+            if (stem == null)
+                return false;
+            for (int segment = 0; segment < segments.length; segment++) {
+                int term = segments[segment].termOrdinal(stem);
+                if (term < 0)
+                    continue;
+                for (PostingIterator iterator = segments[segment].iterator(term); !iterator.isExhausted(); iterator.next()) {
+                    if (isLive(segment, iterator.book()))
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * build the term table of every live book, stems being identified by their ordinal in {@link #unionOfTerms()}
+         * @return a map of <Id_book, (Stem ordinal, Relevance)>
+         */
+        public HashMap<Integer, Postings> bookTermTables() {
+            HashMap<Integer, Postings> tables = new HashMap<>();
+            if (segments.length == 1) {
+                for (int book = 0; book < segments[0].getNumberOfBooks(); book++) {
+                    if (isLive(0, segments[0].bookId(book)))
+                        tables.put(segments[0].bookId(book), segments[0].bookTerms(book));
+                }
+                return tables;
+            }
+            int[][] remap = remapTerms(unionOfTerms());
+            for (int segment = 0; segment < segments.length; segment++) {
+                KeywordIndex index = segments[segment];
+                for (int book = 0; book < index.getNumberOfBooks(); book++) {
+                    if (!isLive(segment, index.bookId(book)))
+                        continue;
+                    Postings.Builder builder = new Postings.Builder();
+                    for (int e = index.bookTermsStart(book); e < index.bookTermsEnd(book); e++)
+                        builder.add(remap[segment][index.bookTerm(e)], index.bookTermScore(e));
+                    tables.put(index.bookId(book), builder.build());
+                }
+            }
+            return tables;
+        }
+
+        /**
+         * @param bookIds ids of books, the books that are not live being left out
+         * @param stems filled with the stems of these books in ascending order
+         * @return a map of <Id_book, (Stem ordinal, Relevance)>, stems being identified by their index in `stems`
+         */
+        public HashMap<Integer, Postings> bookTermTables(Collection<Integer> bookIds, List<String> stems) {
+            // segment and ordinal of each live book
+            List<int[]> books = new ArrayList<>();
+            TreeSet<byte[]> terms = new TreeSet<>(KeywordIndexWriter.UTF8_ORDER);
+            for (int bookId : bookIds) {
+                Integer owner = owners.get(bookId);
+                int segment = owner == null ? 0 : owner;
+                int book = segment < 0 ? -1 : segments[segment].bookOrdinal(bookId);
+                if (book < 0)
+                    continue;
+                books.add(new int[]{bookId, segment, book});
+                KeywordIndex index = segments[segment];
+                for (int e = index.bookTermsStart(book); e < index.bookTermsEnd(book); e++)
+                    terms.add(index.termBytes(index.bookTerm(e)));
+            }
+            byte[][] allTerms = terms.toArray(new byte[0][]);
+            for (byte[] term : allTerms)
+                stems.add(new String(term, StandardCharsets.UTF_8));
+
+            HashMap<Integer, Postings> tables = new HashMap<>();
+            for (int[] book : books) {
+                KeywordIndex index = segments[book[1]];
+                Postings.Builder builder = new Postings.Builder();
+                for (int e = index.bookTermsStart(book[2]); e < index.bookTermsEnd(book[2]); e++)
+                    builder.add(Arrays.binarySearch(allTerms, index.termBytes(index.bookTerm(e)), KeywordIndexWriter.UTF8_ORDER), index.bookTermScore(e));
+                tables.put(book[0], builder.build());
+            }
+            return tables;
+        }
+
+        /**
+         * @return the stems of all segments in ascending order, a stem being identified by its index
+         * in the tables of {@link #bookTermTables()}
+         */
+        public List<String> stems() {
+            List<String> stems = new ArrayList<>();
+            for (byte[] term : unionOfTerms())
+                stems.add(new String(term, StandardCharsets.UTF_8));
+            return stems;
+        }
+
+        /**
+         * @return the stems of all segments as UTF-8 bytes, in the order of the index files
+         */
+        byte[][] unionOfTerms() {
+            TreeSet<byte[]> terms = new TreeSet<>(KeywordIndexWriter.UTF8_ORDER);
+            for (KeywordIndex segment : segments) {
+                for (int term = 0; term < segment.getNumberOfTerms(); term++)
+                    terms.add(segment.term(term).getBytes(StandardCharsets.UTF_8));
+            }
+            return terms.toArray(new byte[0][]);
+        }
+
+        /**
+         * @param allTerms the result of {@link #unionOfTerms()}
+         * @return for each segment, the ordinal in `allTerms` of each of its stems
+         */
+        int[][] remapTerms(byte[][] allTerms) {
+            int[][] remap = new int[segments.length][];
+            for (int s = 0; s < segments.length; s++) {
+                remap[s] = new int[segments[s].getNumberOfTerms()];
+                for (int term = 0; term < remap[s].length; term++)
+                    remap[s][term] = Arrays.binarySearch(allTerms, segments[s].term(term).getBytes(StandardCharsets.UTF_8), KeywordIndexWriter.UTF8_ORDER);
+            }
+            return remap;
+        }
+    }
+}
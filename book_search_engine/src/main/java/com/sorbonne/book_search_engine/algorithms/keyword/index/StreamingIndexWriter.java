@@ -0,0 +1,276 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes an index file in the layout read by {@link KeywordIndex} without holding its tables in memory:
+ * every section is streamed to its own temporary file while terms, postings, words and books are added,
+ * then the header and the sections are concatenated into the index file.
+ * Only the {@link WordAutomaton} of the words is built in memory.
+ *
+ * Terms must be added in the order of their UTF-8 bytes, each one followed by its postings in ascending book id,
+ * then words in the order of their UTF-8 bytes, then books in ascending id, each one followed by its stems
+ * in ascending term ordinal.
+ *
+ * Offsets into a section are written as ints, every section being mapped as a single buffer: the writer fails
+ * with an {@link IOException} as soon as a section grows over {@link KeywordIndex#MAX_SECTION_LENGTH} bytes.
+ */
+final class StreamingIndexWriter implements Closeable {
+    private final Path path;
+    private final Path directory;
+    private final boolean positions;
+    private final Path[] files;
+    private final DataOutputStream[] sections;
+    private final WordAutomaton.Builder words = new WordAutomaton.Builder();
+    private boolean finished;
+
+    private int numberOfTerms;
+    private int numberOfWords;
+    private int numberOfBooks;
+    private int numberOfPostings;
+    private int numberOfBookTerms;
+    private int numberOfSkips;
+    private long termBytes;
+    private long postingBytes;
+    private long positionBytes;
+
+    // the term being written
+    private int termStart = -1;
+    private int previousBook;
+    private int blockMaxFrequency;
+    private int blockMinLength;
+
+    /**
+     * @param path the index file
+     * @param positions whether positions are written with each posting
+     * @throws IOException when the temporary files cannot be created
+     */
+    StreamingIndexWriter(Path path, boolean positions) throws IOException {
+        this.path = path;
+        this.positions = positions;
+        directory = path.resolveSibling(path.getFileName() + ".sections");
+        deleteDirectory(directory);
+        Files.createDirectories(directory);
+        KeywordIndex.Section[] values = KeywordIndex.Section.values();
+        files = new Path[values.length];
+        sections = new DataOutputStream[values.length];
+        for (KeywordIndex.Section section : values) {
+            files[section.ordinal()] = directory.resolve(section.name().toLowerCase());
+            sections[section.ordinal()] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[section.ordinal()]), 1 << 16));
+        }
+    }
+
+    private DataOutputStream out(KeywordIndex.Section section) {
+        return sections[section.ordinal()];
+    }
+
+    /**
+     * start the postings of a new term, greater than the previous one
+     * @param term UTF-8 bytes of the stem
+     * @return the ordinal of the term
+     */
+    int addTerm(byte[] term) throws IOException {
+        endTerm();
+        out(KeywordIndex.Section.TERM_OFFSETS).writeInt(offset(KeywordIndex.Section.TERM_BYTES, termBytes));
+        out(KeywordIndex.Section.TERM_BYTES).write(term);
+        termBytes += term.length;
+        out(KeywordIndex.Section.POSTING_OFFSETS).writeInt(numberOfPostings);
+        out(KeywordIndex.Section.POSTING_STARTS).writeInt(offset(KeywordIndex.Section.POSTING_BOOKS, postingBytes));
+        out(KeywordIndex.Section.SKIP_OFFSETS).writeInt(numberOfSkips);
+        termStart = numberOfPostings;
+        previousBook = 0;
+        return numberOfTerms++;
+    }
+
+    /**
+     * add a posting to the current term, its positions being given next with {@link #addPositionByte(byte)}
+     * @param bookId id of the book, greater than the previous book of the term
+     * @param score relevance of the stem in the book
+     * @param length length of the book
+     */
+    void addPosting(int bookId, float score, int length) throws IOException {
+        int index = numberOfPostings - termStart;
+        if (index % KeywordIndex.BLOCK_SIZE == 0) {
+            if (index > 0) {
+                endBlock();
+                out(KeywordIndex.Section.SKIP_BOOKS).writeInt(previousBook);
+                out(KeywordIndex.Section.SKIP_POINTERS).writeInt(offset(KeywordIndex.Section.POSTING_BOOKS, postingBytes));
+                numberOfSkips++;
+            }
+            blockMaxFrequency = 0;
+            blockMinLength = Integer.MAX_VALUE;
+        }
+        postingBytes += writeVInt(out(KeywordIndex.Section.POSTING_BOOKS), bookId - previousBook);
+        previousBook = bookId;
+        out(KeywordIndex.Section.POSTING_SCORES).writeFloat(score);
+        blockMaxFrequency = Math.max(blockMaxFrequency, KeywordIndex.frequency(score, length));
+        blockMinLength = Math.min(blockMinLength, length);
+        if (positions)
+            out(KeywordIndex.Section.POSITION_OFFSETS).writeInt(offset(KeywordIndex.Section.POSITION_BYTES, positionBytes));
+        numberOfPostings++;
+    }
+
+    /**
+     * add a byte of the variable-length deltas of the positions of the last posting
+     */
+    void addPositionByte(byte value) throws IOException {
+        out(KeywordIndex.Section.POSITION_BYTES).write(value);
+        positionBytes++;
+    }
+
+    private void endBlock() throws IOException {
+        out(KeywordIndex.Section.BLOCK_MAX_FREQUENCIES).writeInt(blockMaxFrequency);
+        out(KeywordIndex.Section.BLOCK_MIN_LENGTHS).writeInt(blockMinLength);
+    }
+
+    private void endTerm() throws IOException {
+        if (termStart < 0)
+            return;
+        if (numberOfPostings == termStart)
+            throw new IllegalStateException("term " + (numberOfTerms - 1) + " has no posting");
+        endBlock();
+        termStart = -1;
+    }
+
+    /**
+     * @param word UTF-8 bytes of a word, greater than the previous word
+     * @param term ordinal of the stem of the word
+     */
+    void addWord(byte[] word, int term) throws IOException {
+        endTerm();
+        words.add(word);
+        out(KeywordIndex.Section.WORD_TERMS).writeInt(term);
+        numberOfWords++;
+    }
+
+    /**
+     * start the term table of a new book
+     * @param bookId id of the book, greater than the previous book
+     * @param length length of the book
+     */
+    void addBook(int bookId, int length) throws IOException {
+        endTerm();
+        out(KeywordIndex.Section.BOOK_IDS).writeInt(bookId);
+        out(KeywordIndex.Section.BOOK_LENGTHS).writeInt(length);
+        out(KeywordIndex.Section.BOOK_OFFSETS).writeInt(numberOfBookTerms);
+        numberOfBooks++;
+    }
+
+    /**
+     * @param term ordinal of a stem of the current book, greater than the previous one
+     * @param score relevance of the stem in the book
+     */
+    void addBookTerm(int term, float score) throws IOException {
+        out(KeywordIndex.Section.BOOK_TERMS).writeInt(term);
+        out(KeywordIndex.Section.BOOK_SCORES).writeFloat(score);
+        numberOfBookTerms++;
+    }
+
+    /**
+     * write the header and the sections to a temporary file then move it to the index file
+     */
+    void finish() throws IOException {
+        endTerm();
+        if (numberOfBookTerms != numberOfPostings)
+            throw new IllegalStateException("the tables of books and the postings do not hold the same postings");
+        out(KeywordIndex.Section.TERM_OFFSETS).writeInt(offset(KeywordIndex.Section.TERM_BYTES, termBytes));
+        out(KeywordIndex.Section.POSTING_OFFSETS).writeInt(numberOfPostings);
+        out(KeywordIndex.Section.POSTING_STARTS).writeInt(offset(KeywordIndex.Section.POSTING_BOOKS, postingBytes));
+        out(KeywordIndex.Section.SKIP_OFFSETS).writeInt(numberOfSkips);
+        out(KeywordIndex.Section.BOOK_OFFSETS).writeInt(numberOfBookTerms);
+        if (positions)
+            out(KeywordIndex.Section.POSITION_OFFSETS).writeInt(offset(KeywordIndex.Section.POSITION_BYTES, positionBytes));
+        out(KeywordIndex.Section.WORD_AUTOMATON).write(words.build());
+        for (DataOutputStream section : sections)
+            section.close();
+
+        long[] lengths = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lengths[i] = Files.size(files[i]);
+            offset(KeywordIndex.Section.values()[i], lengths[i]);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream header = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            header.writeInt(KeywordIndex.MAGIC);
+            header.writeInt(KeywordIndex.VERSION);
+            header.writeInt(numberOfTerms);
+            header.writeInt(numberOfWords);
+            header.writeInt(numberOfBooks);
+            header.writeInt(numberOfPostings);
+            header.writeInt(lengths.length);
+            long offset = KeywordIndex.headerLength();
+            for (long length : lengths) {
+                header.writeLong(offset);
+                header.writeLong(length);
+                offset += length;
+            }
+        }
+        try (FileChannel target = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (Path file : files) {
+                try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long position = 0;
+                    long size = source.size();
+                    while (position < size)
+                        position += source.transferTo(position, size - position, target);
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+        deleteDirectory(directory);
+    }
+
+    /**
+     * drop the temporary files, the index file being left as it was if {@link #finish()} was not called
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished)
+            return;
+        for (DataOutputStream section : sections)
+            section.close();
+        deleteDirectory(directory);
+    }
+
+    /**
+     * @param section the section the offset points into
+     * @param offset an offset into the section, or its length
+     * @return the offset as an int
+     * @throws IOException if the section grows over the bytes of a single mapped buffer
+     */
+    static int offset(KeywordIndex.Section section, long offset) throws IOException {
+        if (offset > KeywordIndex.MAX_SECTION_LENGTH)
+            throw new IOException("section " + section + " grows to " + offset + " bytes, over the "
+                    + KeywordIndex.MAX_SECTION_LENGTH + " bytes of a mapped buffer");
+        return (int) offset;
+    }
+
+    private static int writeVInt(DataOutputStream out, int value) throws IOException {
+        int bytes = 1;
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            bytes++;
+        }
+        out.write(value);
+        return bytes;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory))
+            return;
+        try (java.nio.file.DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files)
+                Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,106 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import java.util.Arrays;
+
+/**
+ * Bounded selection of the k best (id, score) pairs on a binary min-heap held in two primitive arrays:
+ * the root is the worst pair kept, so that a new pair only has to be compared with the root.
+ * A pair is better than another one if its score is greater, or if its id is smaller for the same score,
+ * which is the order of {@link Postings#idsByScore()}.
+ */
+public final class TopK {
+    private final int k;
+    private int[] ids;
+    private float[] scores;
+    private int size;
+
+    /**
+     * @param k the number of pairs to keep, Integer.MAX_VALUE to keep them all
+     */
+    public TopK(int k) {
+        this.k = k;
+        int capacity = Math.max(0, Math.min(k, 16));
+        ids = new int[capacity];
+        scores = new float[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size >= k;
+    }
+
+    /**
+     * @return the score a pair must reach to be kept, only pairs of a smaller id being kept at this very score
+     */
+    public float threshold() {
+        if (k <= 0)
+            return Float.POSITIVE_INFINITY;
+        return isFull() ? scores[0] : Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @param id an id, offered only once
+     * @param score its score
+     * @return true if the pair is kept, evicting the worst pair when k pairs are already kept
+     */
+    public boolean offer(int id, float score) {
+        if (k <= 0)
+            return false;
+        if (size < k) {
+            if (size == ids.length) {
+                int capacity = (int) Math.min(k, 2L * size);
+                ids = Arrays.copyOf(ids, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            // sift up from the new leaf
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(id, score, ids[parent], scores[parent]))
+                    break;
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+            return true;
+        }
+        if (!worse(ids[0], scores[0], id, score))
+            return false;
+        // sift down from the root
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && worse(ids[child + 1], scores[child + 1], ids[child], scores[child]))
+                child++;
+            if (!worse(ids[child], scores[child], id, score))
+                break;
+            ids[i] = ids[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        ids[i] = id;
+        scores[i] = score;
+        return true;
+    }
+
+    /**
+     * @return the pairs kept, sorted by id
+     */
+    public Postings toPostings() {
+        Postings.Builder builder = new Postings.Builder();
+        for (int i = 0; i < size; i++)
+            builder.add(ids[i], scores[i]);
+        return builder.build();
+    }
+
+    private static boolean worse(int id, float score, int otherId, float otherScore) {
+        return score < otherScore || (score == otherScore && id > otherId);
+    }
+}
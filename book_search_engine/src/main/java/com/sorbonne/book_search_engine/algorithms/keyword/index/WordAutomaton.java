@@ -0,0 +1,592 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Minimal acyclic automaton over the UTF-8 bytes of the indexed words: words sharing a prefix share the states
+ * of this prefix, and words sharing a suffix share the states of this suffix.
+ * Each arc holds the number of words accepted before it from its source state, so that the sum of these ranks along
+ * the path of a word is the ordinal of the word in ascending order. The automaton is thus a perfect hash of the
+ * words onto [0, #words), which indexes the WORD_TERMS table of {@link KeywordIndex}.
+ *
+ * States are packed in a byte array, each state being written before the states leading to it:
+ * <pre>
+ * int     address of the initial state
+ * state   flags: final (bit 0), width of targets - 1 (bits 1-2), width of ranks - 1 (bits 3-4), no arc (bit 5)
+ *         number of arcs - 1, unless the state has no arc
+ *         arcs sorted by unsigned label: label, target address on `width of targets` bytes, rank on `width of ranks` bytes
+ * </pre>
+ * The arcs of a state have a fixed size, so that they are binary searched.
+ */
+public final class WordAutomaton {
+    private static final int FINAL = 1;
+    private static final int NO_ARC = 1 << 5;
+
+    private final ByteBuffer bytes;
+    private final int root;
+    private final int numberOfWords;
+
+    WordAutomaton(ByteBuffer bytes, int numberOfWords) {
+        this.bytes = bytes;
+        this.root = bytes.getInt(0);
+        this.numberOfWords = numberOfWords;
+    }
+
+    public int getNumberOfWords() {
+        return numberOfWords;
+    }
+
+    /**
+     * @param word a word in lower case
+     * @return the ordinal of the word, or -1 if the word is not accepted
+     */
+    public int ordinal(String word) {
+        int state = root;
+        int rank = 0;
+        for (byte label : word.getBytes(StandardCharsets.UTF_8)) {
+            int arc = arc(state, label);
+            if (arc < 0)
+                return -1;
+            rank += rank(state, arc);
+            state = target(state, arc);
+        }
+        return isFinal(state) ? rank : -1;
+    }
+
+    /**
+     * @param ordinal ordinal of a word
+     * @return the word of this ordinal
+     */
+    public String word(int ordinal) {
+        if (ordinal < 0 || ordinal >= numberOfWords)
+            throw new IndexOutOfBoundsException("word " + ordinal + " of " + numberOfWords);
+        ByteArray word = new ByteArray();
+        int state = root;
+        int rank = ordinal;
+        while (rank > 0 || !isFinal(state)) {
+            // last arc whose rank is not above the remaining rank
+            int low = 0;
+            int high = numberOfArcs(state) - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (rank(state, mid) <= rank)
+                    low = mid;
+                else
+                    high = mid - 1;
+            }
+            rank -= rank(state, low);
+            word.add(label(state, low));
+            state = target(state, low);
+        }
+        return word.toString();
+    }
+
+    /**
+     * @param prefix a prefix in lower case
+     * @return the range [start, end) of the ordinals of the words starting with `prefix`, empty if there is none
+     */
+    public int[] prefixRange(String prefix) {
+        int state = root;
+        int rank = 0;
+        for (byte label : prefix.getBytes(StandardCharsets.UTF_8)) {
+            int arc = arc(state, label);
+            if (arc < 0) {
+                // the words before the missing arc are all before the prefix
+                int start = rank + wordsBefore(state, label);
+                return new int[]{start, start};
+            }
+            rank += rank(state, arc);
+            state = target(state, arc);
+        }
+        return new int[]{rank, rank + numberOfWordsFrom(state)};
+    }
+
+    /**
+     * @return an iterator over the words in ascending order, walking the automaton depth first
+     */
+    public Iterator<String> iterator() {
+        return iterator("");
+    }
+
+    /**
+     * @param prefix a prefix in lower case
+     * @return an iterator over the words starting with `prefix`, in ascending order
+     */
+    public Iterator<String> iterator(String prefix) {
+        int state = root;
+        byte[] labels = prefix.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < labels.length && state >= 0; i++) {
+            int arc = arc(state, labels[i]);
+            state = arc < 0 ? -1 : target(state, arc);
+        }
+        return new WordIterator(state, labels);
+    }
+
+    /**
+     * walk a char automaton along the words, in lockstep: the characters of a prefix shared by words are read once,
+     * the words after a prefix accepted by the char automaton are accepted without being read, and a state of this
+     * automaton is walked at most once with each state of the char automaton from which no word is accepted,
+     * however many prefixes lead to it
+     * @param automaton a char automaton
+     * @return the words accepted by the char automaton, in ascending order
+     */
+    public List<String> wordsAcceptedBy(CharAutomaton automaton) {
+        List<String> words = new ArrayList<>();
+        new Intersection(automaton, words).walk(root, automaton.getStart(), 0, 0);
+        return words;
+    }
+
+    boolean isFinal(int state) {
+        return (bytes.get(state) & FINAL) != 0;
+    }
+
+    int numberOfArcs(int state) {
+        return (bytes.get(state) & NO_ARC) != 0 ? 0 : (bytes.get(state + 1) & 0xFF) + 1;
+    }
+
+    byte label(int state, int arc) {
+        return bytes.get(arcAddress(state, arc));
+    }
+
+    int target(int state, int arc) {
+        return read(arcAddress(state, arc) + 1, targetWidth(state));
+    }
+
+    /**
+     * binary search of an arc by its unsigned label
+     * @return the index of the arc in the state, or -1 if the state has no arc with this label
+     */
+    int arc(int state, byte label) {
+        int key = label & 0xFF;
+        int low = 0;
+        int high = numberOfArcs(state) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = (label(state, mid) & 0xFF) - key;
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private int rank(int state, int arc) {
+        return read(arcAddress(state, arc) + 1 + targetWidth(state), rankWidth(state));
+    }
+
+    private int targetWidth(int state) {
+        return ((bytes.get(state) >> 1) & 3) + 1;
+    }
+
+    private int rankWidth(int state) {
+        return ((bytes.get(state) >> 3) & 3) + 1;
+    }
+
+    private int arcAddress(int state, int arc) {
+        return state + 2 + arc * (1 + targetWidth(state) + rankWidth(state));
+    }
+
+    private int read(int address, int width) {
+        int value = 0;
+        for (int i = 0; i < width; i++)
+            value = (value << 8) | (bytes.get(address + i) & 0xFF);
+        return value;
+    }
+
+    /**
+     * number of words accepted from a state before its arcs of label greater than `label`
+     */
+    private int wordsBefore(int state, byte label) {
+        int count = isFinal(state) ? 1 : 0;
+        for (int arc = 0; arc < numberOfArcs(state); arc++) {
+            if ((label(state, arc) & 0xFF) > (label & 0xFF))
+                return rank(state, arc);
+            count = rank(state, arc) + numberOfWordsFrom(target(state, arc));
+        }
+        return count;
+    }
+
+    /**
+     * number of words accepted from a state, summed along the path of its last arcs
+     */
+    private int numberOfWordsFrom(int state) {
+        int count = 0;
+        int arcs = numberOfArcs(state);
+        while (arcs > 0) {
+            count += rank(state, arcs - 1);
+            state = target(state, arcs - 1);
+            arcs = numberOfArcs(state);
+        }
+        return isFinal(state) ? count + 1 : count;
+    }
+
+    /**
+     * depth first walk, arcs being taken in ascending label so that words come out in ascending order
+     */
+    private final class WordIterator implements Iterator<String> {
+        private final ByteArray word = new ByteArray();
+        private int[] states = new int[16];
+        private int[] arcs = new int[16];
+        private int depth;
+        private String next;
+
+        WordIterator(int state, byte[] prefix) {
+            for (byte label : prefix)
+                word.add(label);
+            if (state >= 0) {
+                states[0] = state;
+                depth = 1;
+                if (isFinal(state))
+                    next = word.toString();
+                else
+                    advance();
+            }
+        }
+
+        private void advance() {
+            next = null;
+            while (depth > 0) {
+                int state = states[depth - 1];
+                int arc = arcs[depth - 1];
+                if (arc == numberOfArcs(state)) {
+                    depth--;
+                    if (depth > 0)
+                        word.size--;
+                    continue;
+                }
+                arcs[depth - 1]++;
+                int target = target(state, arc);
+                word.add(label(state, arc));
+                if (depth == states.length) {
+                    states = Arrays.copyOf(states, depth * 2);
+                    arcs = Arrays.copyOf(arcs, depth * 2);
+                }
+                states[depth] = target;
+                arcs[depth] = 0;
+                depth++;
+                if (isFinal(target)) {
+                    next = word.toString();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            String result = next;
+            advance();
+            return result;
+        }
+    }
+
+    /**
+     * depth first walk of the product of this automaton and a char automaton, the UTF-8 bytes of the arcs being
+     * decoded into characters on the way
+     */
+    private final class Intersection {
+        private final CharAutomaton automaton;
+        private final List<String> words;
+        private final ByteArray word = new ByteArray();
+        // open addressing set of the pairs of states from which no word is accepted, address of the state of this
+        // automaton in the high bits; 0 marks an empty slot, no state being at address 0
+        private long[] rejectingPairs = new long[1024];
+        private int numberOfRejectingPairs;
+
+        Intersection(CharAutomaton automaton, List<String> words) {
+            this.automaton = automaton;
+            this.words = words;
+        }
+
+        /**
+         * @param state a state of this automaton
+         * @param charState the state of the char automaton after the characters read
+         * @param codePoint the bits of the character being decoded
+         * @param remaining the number of bytes of the character being decoded still to read, 0 between characters
+         * @return true if a word is accepted from the states
+         */
+        boolean walk(int state, int charState, int codePoint, int remaining) {
+            if (automaton.isAccepting(charState)) {
+                Iterator<String> accepted = new WordIterator(state, word.toByteArray());
+                while (accepted.hasNext())
+                    words.add(accepted.next());
+                return true;
+            }
+            long pair = (long) state << 32 | charState & 0xFFFFFFFFL;
+            if (remaining == 0 && isRejecting(pair))
+                return false;
+            boolean isAccepted = false;
+            int arcs = numberOfArcs(state);
+            int targetWidth = targetWidth(state);
+            int arcWidth = 1 + targetWidth + rankWidth(state);
+            for (int arc = 0, address = state + 2; arc < arcs; arc++, address += arcWidth) {
+                byte label = bytes.get(address);
+                int b = label & 0xFF;
+                int nextCodePoint;
+                int nextRemaining;
+                if (remaining > 0) {
+                    nextCodePoint = codePoint << 6 | b & 0x3F;
+                    nextRemaining = remaining - 1;
+                } else if (b < 0x80) {
+                    nextCodePoint = b;
+                    nextRemaining = 0;
+                } else if (b >= 0xF0) {
+                    nextCodePoint = b & 0x07;
+                    nextRemaining = 3;
+                } else if (b >= 0xE0) {
+                    nextCodePoint = b & 0x0F;
+                    nextRemaining = 2;
+                } else {
+                    nextCodePoint = b & 0x1F;
+                    nextRemaining = 1;
+                }
+                int nextCharState = charState;
+                if (nextRemaining == 0) {
+                    if (Character.isBmpCodePoint(nextCodePoint)) {
+                        nextCharState = automaton.next(charState, (char) nextCodePoint);
+                    } else {
+                        nextCharState = automaton.next(charState, Character.highSurrogate(nextCodePoint));
+                        if (nextCharState != CharAutomaton.DEAD && !automaton.isAccepting(nextCharState))
+                            nextCharState = automaton.next(nextCharState, Character.lowSurrogate(nextCodePoint));
+                    }
+                    if (nextCharState == CharAutomaton.DEAD)
+                        continue;
+                }
+                word.add(label);
+                isAccepted |= walk(read(address + 1, targetWidth), nextCharState, nextCodePoint, nextRemaining);
+                word.size--;
+            }
+            if (!isAccepted && remaining == 0)
+                addRejecting(pair);
+            return isAccepted;
+        }
+
+        private boolean isRejecting(long pair) {
+            int mask = rejectingPairs.length - 1;
+            for (int slot = slot(pair, mask); rejectingPairs[slot] != 0; slot = (slot + 1) & mask) {
+                if (rejectingPairs[slot] == pair)
+                    return true;
+            }
+            return false;
+        }
+
+        private void addRejecting(long pair) {
+            if (2 * (numberOfRejectingPairs + 1) > rejectingPairs.length) {
+                long[] pairs = rejectingPairs;
+                rejectingPairs = new long[pairs.length * 2];
+                for (long other : pairs) {
+                    if (other != 0)
+                        insert(other);
+                }
+            }
+            insert(pair);
+            numberOfRejectingPairs++;
+        }
+
+        private void insert(long pair) {
+            int mask = rejectingPairs.length - 1;
+            int slot = slot(pair, mask);
+            while (rejectingPairs[slot] != 0)
+                slot = (slot + 1) & mask;
+            rejectingPairs[slot] = pair;
+        }
+
+        private int slot(long pair, int mask) {
+            return (int) ((pair * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+    }
+
+    /**
+     * @param words words in lower case, in any order and possibly repeated
+     * @return the automaton of the words, held in memory
+     */
+    public static WordAutomaton of(Collection<String> words) {
+        byte[][] sorted = words.stream().distinct().map(word -> word.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        Arrays.sort(sorted, KeywordIndexWriter.UTF8_ORDER);
+        Builder builder = new Builder();
+        for (byte[] word : sorted)
+            builder.add(word);
+        return new WordAutomaton(ByteBuffer.wrap(builder.build()), sorted.length);
+    }
+
+    /**
+     * Builds the minimal automaton of words added in ascending order, as in Daciuk et al.
+     * "Incremental construction of minimal acyclic finite-state automata": once a word is added,
+     * the states of the previous word after their common prefix can no longer change.
+     * Each of them is replaced by an equivalent state already registered, if any, or else registered and written.
+     */
+    static final class Builder {
+        private final HashMap<State, State> register = new HashMap<>();
+        private final ByteArray output = new ByteArray();
+        private State[] path = new State[32];
+        private byte[] previous;
+
+        Builder() {
+            path[0] = new State();
+            // room for the address of the initial state
+            for (int i = 0; i < Integer.BYTES; i++)
+                output.add((byte) 0);
+        }
+
+        /**
+         * @param word UTF-8 bytes of a word, greater than the previous word in {@link KeywordIndexWriter#UTF8_ORDER}
+         */
+        void add(byte[] word) {
+            int common = 0;
+            if (previous != null) {
+                if (KeywordIndexWriter.UTF8_ORDER.compare(previous, word) >= 0)
+                    throw new IllegalArgumentException("words must be added in strictly ascending order");
+                int length = Math.min(previous.length, word.length);
+                while (common < length && previous[common] == word[common])
+                    common++;
+                minimize(common);
+            }
+            if (word.length + 1 > path.length)
+                path = Arrays.copyOf(path, Math.max(path.length * 2, word.length + 1));
+            for (int i = common; i < word.length; i++) {
+                State state = new State();
+                path[i].addArc(word[i], state);
+                path[i + 1] = state;
+            }
+            path[word.length].isFinal = true;
+            previous = word;
+        }
+
+        /**
+         * @return the packed automaton
+         */
+        byte[] build() {
+            if (previous != null)
+                minimize(0);
+            State root = path[0];
+            root.freeze();
+            write(root);
+            byte[] packed = output.toByteArray();
+            ByteBuffer.wrap(packed).putInt(0, root.address);
+            return packed;
+        }
+
+        /**
+         * register the states of the previous word deeper than `depth`, deepest first
+         */
+        private void minimize(int depth) {
+            for (int i = previous.length; i > depth; i--) {
+                State state = path[i];
+                state.freeze();
+                State registered = register.get(state);
+                if (registered != null) {
+                    path[i - 1].targets[path[i - 1].size - 1] = registered;
+                } else {
+                    register.put(state, state);
+                    write(state);
+                }
+            }
+        }
+
+        private void write(State state) {
+            state.address = output.size;
+            if (state.size == 0) {
+                output.add((byte) (NO_ARC | (state.isFinal ? FINAL : 0)));
+                return;
+            }
+            int maxTarget = 0;
+            for (int arc = 0; arc < state.size; arc++)
+                maxTarget = Math.max(maxTarget, state.targets[arc].address);
+            int targetWidth = width(maxTarget);
+            int rankWidth = width(state.count);
+            output.add((byte) ((state.isFinal ? FINAL : 0) | (targetWidth - 1) << 1 | (rankWidth - 1) << 3));
+            output.add((byte) (state.size - 1));
+            int rank = state.isFinal ? 1 : 0;
+            for (int arc = 0; arc < state.size; arc++) {
+                output.add(state.labels[arc]);
+                writeFixed(state.targets[arc].address, targetWidth);
+                writeFixed(rank, rankWidth);
+                rank += state.targets[arc].count;
+            }
+        }
+
+        private void writeFixed(int value, int width) {
+            for (int i = width - 1; i >= 0; i--)
+                output.add((byte) (value >>> (8 * i)));
+        }
+
+        private static int width(int value) {
+            if (value < 1 << 8)
+                return 1;
+            if (value < 1 << 16)
+                return 2;
+            if (value < 1 << 24)
+                return 3;
+            return 4;
+        }
+    }
+
+    /**
+     * a state under construction. Two frozen states are equal when they have the same finality and the same arcs
+     * to the same registered states
+     */
+    private static final class State {
+        private byte[] labels = new byte[2];
+        private State[] targets = new State[2];
+        private int size;
+        private boolean isFinal;
+        // number of words accepted from this state, known once frozen
+        private int count;
+        private int hash;
+        // address of the state in the packed automaton, known once written
+        private int address;
+
+        void addArc(byte label, State target) {
+            if (size == labels.length) {
+                labels = Arrays.copyOf(labels, size * 2);
+                targets = Arrays.copyOf(targets, size * 2);
+            }
+            labels[size] = label;
+            targets[size] = target;
+            size++;
+        }
+
+        void freeze() {
+            count = isFinal ? 1 : 0;
+            int h = isFinal ? 1 : 0;
+            for (int arc = 0; arc < size; arc++) {
+                count += targets[arc].count;
+                h = 31 * h + labels[arc];
+                h = 31 * h + targets[arc].address;
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof State))
+                return false;
+            State other = (State) o;
+            if (isFinal != other.isFinal || size != other.size || hash != other.hash)
+                return false;
+            for (int arc = 0; arc < size; arc++) {
+                if (labels[arc] != other.labels[arc] || targets[arc] != other.targets[arc])
+                    return false;
+            }
+            return true;
+        }
+    }
+}
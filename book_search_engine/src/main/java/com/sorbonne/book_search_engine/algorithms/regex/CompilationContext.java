@@ -0,0 +1,23 @@
+package com.sorbonne.book_search_engine.algorithms.regex;
+
+import java.util.Set;
+
+/**
+ * State of one compilation of a regex, from its NFA to its DFA: the numbering of the states created.
+ * Every compilation creates its own context, so that regexes are compiled in parallel without sharing anything,
+ * and the time of a compilation depends only on its regex.
+ */
+public final class CompilationContext {
+    private int nextNFAStateId = 0;
+
+    // to have difference with numeric id, we use A-Z to represent each DFAState
+    private int nextDFAStateId = 'A';
+
+    NFAState newNFAState() {
+        return new NFAState(nextNFAStateId++);
+    }
+
+    DFAState newDFAState(Set<NFAState> subset) {
+        return new DFAState(nextDFAStateId++, subset);
+    }
+}
@@ -0,0 +1,216 @@
+package com.sorbonne.book_search_engine.algorithms.regex;
+
+import com.sorbonne.book_search_engine.algorithms.keyword.index.CharAutomaton;
+
+import java.util.*;
+
+/**
+ * A {@link DFA} compiled to arrays, to match words without lookups in maps nor boxing of characters.
+ * Characters are numbered by class: characters of the same class go to the same state from every state,
+ * so a transition is read in transitions[state * numberOfClasses + classOf(c)].
+ * Class 0 is the class of the characters out of the regex.
+ *
+ * The DFA is compiled with an implicit .* before the regex, so that a word is matched in one pass whatever the
+ * position of the part matched: a state of the compiled DFA is the set of states the DFA is in after the word read,
+ * having started at every character, the root being always in. Accepting states never leave themselves,
+ * a word being matched as soon as a part of it is. No state is dead, a part matched being able to start further.
+ */
+public final class CompiledDFA implements CharAutomaton {
+    public static final int START = 0;
+
+    // class of every character up to the greatest input symbol of the regex, the others being of class 0
+    private final int[] classes;
+    private final int numberOfClasses;
+    private final int[] transitions;
+    private final boolean[] accepting;
+
+    private CompiledDFA(int[] classes, int numberOfClasses, int[] transitions, boolean[] accepting) {
+        this.classes = classes;
+        this.numberOfClasses = numberOfClasses;
+        this.transitions = transitions;
+        this.accepting = accepting;
+    }
+
+    /**
+     * build the DFA of a NFA and compile it
+     * @param nfa a NFA
+     * @param context the context of the compilation of the regex of the NFA
+     * @return the compiled DFA of the NFA
+     */
+    public static CompiledDFA compile(NFA nfa, CompilationContext context) {
+        return compile(nfa, context, Integer.MAX_VALUE);
+    }
+
+    /**
+     * build the DFA of a NFA and compile it, failing instead of building more states than allowed:
+     * the DFA and .* followed by it may have a number of states exponential in the length of the regex
+     * @param nfa a NFA
+     * @param context the context of the compilation of the regex of the NFA
+     * @param maxStates the greatest number of states of the DFA and of the compiled DFA
+     * @return the compiled DFA of the NFA
+     * @throws RegExTooComplexException if an automaton has more than maxStates states
+     */
+    public static CompiledDFA compile(NFA nfa, CompilationContext context, int maxStates) {
+        return compile(DFA.fromNFAtoDFA(nfa, context, maxStates), nfa.getInputSymbols(), maxStates);
+    }
+
+    /**
+     * @param dfa a DFA
+     * @param inputSymbols the input symbols of the DFA
+     * @return the DFA preceded by .*, with its input symbols grouped by class
+     */
+    public static CompiledDFA compile(DFA dfa, Set<Integer> inputSymbols) {
+        return compile(dfa, inputSymbols, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param dfa a DFA
+     * @param inputSymbols the input symbols of the DFA
+     * @param maxStates the greatest number of states of the compiled DFA
+     * @return the DFA preceded by .*, with its input symbols grouped by class
+     * @throws RegExTooComplexException if the compiled DFA has more than maxStates states
+     */
+    public static CompiledDFA compile(DFA dfa, Set<Integer> inputSymbols, int maxStates) {
+        // states of the DFA numbered from 1 in breadth first order, 0 being the dead state of missing transitions
+        Map<DFAState, Integer> numbers = new IdentityHashMap<>();
+        List<DFAState> states = new ArrayList<>();
+        states.add(null);
+        numbers.put(dfa.getRoot(), states.size());
+        states.add(dfa.getRoot());
+        for (int i = 1; i < states.size(); i++) {
+            for (DFAState next : states.get(i).getTransitions().values()) {
+                if (!numbers.containsKey(next)) {
+                    numbers.put(next, states.size());
+                    states.add(next);
+                }
+            }
+        }
+        int numberOfStates = states.size();
+
+        // symbols with the same column of targets are of the same class
+        int[] sortedSymbols = inputSymbols.stream().mapToInt(Integer::intValue).filter(symbol -> symbol >= 0).sorted().toArray();
+        int[] classes = new int[sortedSymbols.length == 0 ? 0 : sortedSymbols[sortedSymbols.length - 1] + 1];
+        Map<List<Integer>, Integer> classByColumn = new HashMap<>();
+        List<Integer> deadColumn = Collections.nCopies(numberOfStates, 0);
+        classByColumn.put(deadColumn, 0);
+        List<List<Integer>> columns = new ArrayList<>();
+        columns.add(deadColumn);
+        for (int symbol : sortedSymbols) {
+            List<Integer> column = new ArrayList<>(numberOfStates);
+            column.add(0);
+            for (int state = 1; state < numberOfStates; state++) {
+                DFAState next = states.get(state).getTransition(symbol);
+                column.add(next == null ? 0 : numbers.get(next));
+            }
+            Integer charClass = classByColumn.get(column);
+            if (charClass == null) {
+                charClass = columns.size();
+                classByColumn.put(column, charClass);
+                columns.add(column);
+            }
+            classes[symbol] = charClass;
+        }
+        boolean[] accepting = new boolean[numberOfStates];
+        for (int state = 1; state < numberOfStates; state++)
+            accepting[state] = dfa.getAcceptings().contains(states.get(state));
+        return prefixAnyString(classes, columns, accepting, maxStates);
+    }
+
+    /**
+     * subset construction of .* followed by the DFA
+     * @param classes the class of every character
+     * @param columns the targets of every class by state of the DFA, 0 being the dead state and 1 the root
+     * @param accepting the accepting states of the DFA
+     * @param maxStates the greatest number of subsets, up to 2^n for a DFA of n states
+     * @return the compiled DFA of .* followed by the DFA
+     */
+    private static CompiledDFA prefixAnyString(int[] classes, List<List<Integer>> columns, boolean[] accepting, int maxStates) {
+        int numberOfClasses = columns.size();
+        Map<BitSet, Integer> numbers = new HashMap<>();
+        List<BitSet> subsets = new ArrayList<>();
+        BitSet root = new BitSet();
+        root.set(1);
+        numbers.put(root, subsets.size());
+        subsets.add(root);
+        List<int[]> rows = new ArrayList<>();
+        List<Boolean> acceptingSubsets = new ArrayList<>();
+        for (int i = 0; i < subsets.size(); i++) {
+            BitSet subset = subsets.get(i);
+            int[] row = new int[numberOfClasses];
+            boolean isAccepting = subset.stream().anyMatch(state -> accepting[state]);
+            acceptingSubsets.add(isAccepting);
+            for (int charClass = 0; charClass < numberOfClasses; charClass++) {
+                if (isAccepting) {
+                    row[charClass] = i;
+                    continue;
+                }
+                BitSet next = new BitSet();
+                next.set(1);
+                List<Integer> column = columns.get(charClass);
+                subset.stream().forEach(state -> next.set(column.get(state)));
+                next.clear(0);
+                Integer number = numbers.get(next);
+                if (number == null) {
+                    if (subsets.size() >= maxStates)
+                        throw new RegExTooComplexException("the regex preceded by .* has more than " + maxStates + " states");
+                    number = subsets.size();
+                    numbers.put(next, number);
+                    subsets.add(next);
+                }
+                row[charClass] = number;
+            }
+            rows.add(row);
+        }
+
+        int numberOfStates = subsets.size();
+        int[] transitions = new int[numberOfStates * numberOfClasses];
+        boolean[] acceptingStates = new boolean[numberOfStates];
+        for (int state = 0; state < numberOfStates; state++) {
+            System.arraycopy(rows.get(state), 0, transitions, state * numberOfClasses, numberOfClasses);
+            acceptingStates[state] = acceptingSubsets.get(state);
+        }
+        return new CompiledDFA(classes, numberOfClasses, transitions, acceptingStates);
+    }
+
+    @Override
+    public int getStart() {
+        return START;
+    }
+
+    public int getNumberOfStates() {
+        return accepting.length;
+    }
+
+    public int getNumberOfClasses() {
+        return numberOfClasses;
+    }
+
+    /**
+     * @param state a state
+     * @param c a character
+     * @return the state reached from the state by the character
+     */
+    @Override
+    public int next(int state, char c) {
+        int charClass = c < classes.length ? classes[c] : 0;
+        return transitions[state * numberOfClasses + charClass];
+    }
+
+    @Override
+    public boolean isAccepting(int state) {
+        return accepting[state];
+    }
+
+    /**
+     * @param word a word
+     * @return true if a part of the word is matched by the DFA
+     */
+    public boolean matches(CharSequence word) {
+        int state = START;
+        for (int position = 0; position < word.length() && !accepting[state]; position++) {
+            char c = word.charAt(position);
+            state = transitions[state * numberOfClasses + (c < classes.length ? classes[c] : 0)];
+        }
+        return accepting[state];
+    }
+}
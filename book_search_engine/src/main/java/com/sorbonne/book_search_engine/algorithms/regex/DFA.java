@@ -1,9 +1,6 @@
 package com.sorbonne.book_search_engine.algorithms.regex;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Created by Wenzhuo Zhao on 02/10/2021.
@@ -17,8 +14,6 @@ public class DFA {
 
     private final Set<DFAState> acceptings;
 
-    static Set<DFAState> allDFAStates = new HashSet<>();
-
     public DFA(DFAState root, Set<DFAState> acceptings) {
         this.root = root;
         this.acceptings = acceptings;
@@ -36,18 +31,34 @@ public class DFA {
      * from NFA to DFA
      *
      * @param nfa a NFA
+     * @param context the context of the compilation of the regex, numbering the states
      * @return a DFA, without epsilon transition
      */
-    public static DFA fromNFAtoDFA(NFA nfa) {
+    public static DFA fromNFAtoDFA(NFA nfa, CompilationContext context) {
+        return fromNFAtoDFA(nfa, context, Integer.MAX_VALUE);
+    }
+
+    /**
+     * from NFA to DFA, with a bound on the number of states
+     *
+     * @param nfa a NFA
+     * @param context the context of the compilation of the regex, numbering the states
+     * @param maxStates the greatest number of states of the DFA
+     * @return a DFA, without epsilon transition
+     * @throws RegExTooComplexException if the DFA has more than maxStates states
+     */
+    public static DFA fromNFAtoDFA(NFA nfa, CompilationContext context, int maxStates) {
         Set<Integer> inputSymbols = nfa.getInputSymbols();
         NFAState root = nfa.getRoot();
         NFAState accepting = nfa.getAccepting();
 
-        DFAState start = new DFAState(root.epsilonClosure());
+        DFAState start = context.newDFAState(root.epsilonClosure());
         Set<DFAState> accepts = new HashSet<>();
 
-        // use HashSet to add only new DFAStates
-        //Set<DFAState> allDFAStates = new HashSet<>();
+        // DFAStates of this DFA by subset, to add only new DFAStates
+        Map<Set<NFAState>, DFAState> dfaStatesBySubset = new HashMap<>();
+        dfaStatesBySubset.put(start.getSubset(), start);
+        Set<DFAState> allDFAStates = new HashSet<>();
         allDFAStates.add(start);
 
         Queue<DFAState> queue = new LinkedList<>();
@@ -58,17 +69,16 @@ public class DFA {
             for (Integer input : inputSymbols) {
                 Set<NFAState> set = getNextSubStates(current, input);
                 if (!set.isEmpty()) {
-                    DFAState next = new DFAState(set);
-                    if (!allDFAStates.add(next)) {
-                        for (DFAState same : allDFAStates) {
-                            if (same.equals(next)) {
-                                // cycle transition
-                                current.addTransition(input, same);
-                                break;
-                            }
-                        }
-                        DFAState.counter--;
+                    DFAState same = dfaStatesBySubset.get(set);
+                    if (same != null) {
+                        // cycle transition
+                        current.addTransition(input, same);
                     } else {
+                        if (allDFAStates.size() >= maxStates)
+                            throw new RegExTooComplexException("the DFA of the regex has more than " + maxStates + " states");
+                        DFAState next = context.newDFAState(set);
+                        dfaStatesBySubset.put(set, next);
+                        allDFAStates.add(next);
                         // check if the `next` DFAState is an accepting state
                         // which means it contains the accepting NFAState of the NFA
                         if (next.getSubset().contains(accepting)) {
@@ -80,65 +90,6 @@ public class DFA {
                 }
             }
         }
-        // Minimize DFA
-        // divide the state in 2 parts
-        // one for all ends and one for the others
-        Queue<Set<DFAState>> worklist = new LinkedList<>();
-        Set<DFAState> union1 = new HashSet<>();
-        for (DFAState state : allDFAStates) {
-            if (!accepts.contains(state)) {
-                union1.add(state);
-            }
-        }
-        // add two parts in worklist
-        worklist.add(union1);
-        worklist.add(accepts);
-        while (!worklist.isEmpty()) {
-            Set<DFAState> current = worklist.poll();
-            // find if their next step still in the union
-            Set<DFAState> union2 = new HashSet<>();
-            for (Integer input : inputSymbols) {
-
-                Set<DFAState> in_union = new HashSet<>(current);
-                // once found, divide the union
-                Set<DFAState> tmp = new HashSet<>();
-                for (DFAState st : current) {
-                    if (!in_union.contains(st.getTransition(input))) {
-                        union2.add(st);
-                        tmp.add(st);
-                    }
-                }
-                current.removeAll(tmp);
-            }
-            // add the union into worklist
-            if (union2.size() > 1) {
-                worklist.add(union2);
-            }
-
-            // now for all state in current
-            // their next step is in the union
-            // so we can consider they are the same state
-
-            if (current.size() < 2) {
-                break;
-            }
-            // change the transitions for each state
-            for (DFAState state : allDFAStates) {
-                for (Integer input : inputSymbols) {
-                    DFAState next = state.getTransitions().get(input);
-                    if (next == null)
-                        continue;
-                    if (current.contains(next)) {
-                        state.getTransitions().remove(input);
-                        Set<DFAState> copy = new HashSet<>(current);
-                        copy.remove(next);
-                        state.getTransitions().put(input, copy.iterator().next());
-                    }
-                }
-            }
-
-        }
-
         return new DFA(start, accepts);
     }
 
@@ -7,14 +7,9 @@ import java.util.*;
  */
 public class DFAState {
     /**
-     * to have difference with numeric id, we use A-Z to represent each DFAState
+     * id of this DFAState, A-Z to have difference with numeric id
      * (wish we won't have more than 26 DFAStates in one automaton...)
      */
-    public static int counter = 65;
-
-    /**
-     * id of this DFAState
-     */
     private final int id;
 
     /**
@@ -27,14 +22,12 @@ public class DFAState {
      */
     private final Map<Integer, DFAState> transitions;
 
-    public DFAState() {
-        id = counter++;
-        subset = new HashSet<>();
-        transitions = new HashMap<>();
-    }
-
-    public DFAState(Set<NFAState> subset) {
-        id = counter++;
+    /**
+     * @param id id of the state, unique in its DFA, given by {@link CompilationContext#newDFAState(Set)}
+     * @param subset a subset of NFAStates
+     */
+    public DFAState(int id, Set<NFAState> subset) {
+        this.id = id;
         this.subset = subset;
         transitions = new HashMap<>();
     }
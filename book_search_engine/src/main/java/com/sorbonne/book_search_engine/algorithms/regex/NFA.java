@@ -31,10 +31,17 @@ public class NFA {
         return accepting;
     }
 
-    public static NFA fromRegExTreeToNFA(RegExTree ret){
+    /**
+     * from a syntax tree to a NFA
+     *
+     * @param ret a syntax tree of a regex
+     * @param context the context of the compilation of the regex, numbering the states
+     * @return a NFA with epsilon transitions
+     */
+    public static NFA fromRegExTreeToNFA(RegExTree ret, CompilationContext context){
         if(ret.subTrees.isEmpty()){
-            NFAState start_state = new NFAState();
-            NFAState final_state = new NFAState();
+            NFAState start_state = context.newNFAState();
+            NFAState final_state = context.newNFAState();
             Set<Integer> inputSymbols = new HashSet<>();
             if (ret.root != NodeEnum.DOT){
                 // only 1 transition
@@ -52,8 +59,8 @@ public class NFA {
 
         if(ret.root == NodeEnum.CONCAT){
             // from left's end to right's start
-            NFA left = fromRegExTreeToNFA(ret.subTrees.get(0));
-            NFA right = fromRegExTreeToNFA(ret.subTrees.get(1));
+            NFA left = fromRegExTreeToNFA(ret.subTrees.get(0), context);
+            NFA right = fromRegExTreeToNFA(ret.subTrees.get(1), context);
             left.accepting.addTransition(right.root);
             Set<Integer> inputSymbols = new HashSet<>();
             inputSymbols.addAll(left.inputSymbols);
@@ -64,15 +71,15 @@ public class NFA {
         if (ret.root == NodeEnum.ALTERN){
             // from a new state to left's start and right's start
             // and connect the ends of left and right to end state
-            NFAState start_state = new NFAState();
-            NFA left = fromRegExTreeToNFA(ret.subTrees.get(0));
-            NFA right = fromRegExTreeToNFA(ret.subTrees.get(1));
+            NFAState start_state = context.newNFAState();
+            NFA left = fromRegExTreeToNFA(ret.subTrees.get(0), context);
+            NFA right = fromRegExTreeToNFA(ret.subTrees.get(1), context);
 
             Set<Integer> inputSymbols = new HashSet<>();
             inputSymbols.addAll(left.inputSymbols);
             inputSymbols.addAll(right.inputSymbols);
 
-            NFAState end_state = new NFAState();
+            NFAState end_state = context.newNFAState();
 
             start_state.addTransition(left.root);
             start_state.addTransition(right.root);
@@ -84,9 +91,9 @@ public class NFA {
 
         if (ret.root == NodeEnum.ETOILE){
             // see fig 10.31:
-            NFAState start_state = new NFAState();
-            NFA left = fromRegExTreeToNFA(ret.subTrees.get(0));
-            NFAState end_state = new NFAState();
+            NFAState start_state = context.newNFAState();
+            NFA left = fromRegExTreeToNFA(ret.subTrees.get(0), context);
+            NFAState end_state = context.newNFAState();
 
             start_state.addTransition(left.root);
             start_state.addTransition(end_state);
@@ -98,7 +105,7 @@ public class NFA {
             return new NFA(start_state, end_state, inputSymbols);
         }
 
-        return new NFA(new NFAState(), new NFAState(), new HashSet<>());
+        return new NFA(context.newNFAState(), context.newNFAState(), new HashSet<>());
     }
 
     public Set<Integer> getInputSymbols(){
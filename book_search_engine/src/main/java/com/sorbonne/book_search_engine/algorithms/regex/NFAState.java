@@ -6,8 +6,6 @@ import java.util.*;
  * Created by Wenzhuo Zhao on 28/09/2021.
  */
 public class NFAState {
-    public static int counter = 0;
-
     private final int id;
 
     // input symbols and next states
@@ -16,8 +14,11 @@ public class NFAState {
     // non input symbol (epsilon), only next states
     private final Set<NFAState> epsilonTransitions;
 
-    public NFAState(){
-        id = counter++;
+    /**
+     * @param id id of the state, unique in its NFA, given by {@link CompilationContext#newNFAState()}
+     */
+    public NFAState(int id){
+        this.id = id;
         transitions = new HashMap<>();
         epsilonTransitions = new HashSet<>();
     }
@@ -0,0 +1,11 @@
+package com.sorbonne.book_search_engine.algorithms.regex;
+
+/**
+ * Thrown when a regex is longer, or its automaton has more states, than a search is allowed to build,
+ * the subset constructions being exponential in the length of the regex in the worst case.
+ */
+public class RegExTooComplexException extends IllegalArgumentException {
+    public RegExTooComplexException(String message) {
+        super(message);
+    }
+}
@@ -50,6 +50,28 @@ public class AppConfig {
         return executor;
     }
 
+    @Bean("indexMergeExecutor")
+    public Executor indexMergeExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadPriority(Thread.MIN_PRIORITY);
+        executor.setThreadNamePrefix("IndexMerge-");
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean("rankingExecutor")
+    public Executor rankingExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadPriority(Thread.MIN_PRIORITY);
+        executor.setThreadNamePrefix("Ranking-");
+        executor.initialize();
+        return executor;
+    }
+
     @Bean
     public ConfigurableServletWebServerFactory webServerFactory() {
         TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory();
@@ -1,17 +1,23 @@
 package com.sorbonne.book_search_engine.config;
 
-import com.sorbonne.book_search_engine.algorithms.keyword.Keyword;
-import com.sorbonne.book_search_engine.algorithms.keyword.config.KeywordDictionary;
-import javafx.util.Pair;
+import com.sorbonne.book_search_engine.algorithms.graph.HarmonicCentrality;
+import com.sorbonne.book_search_engine.algorithms.graph.HyperBall;
+import com.sorbonne.book_search_engine.algorithms.graph.JaccardDistances;
+import com.sorbonne.book_search_engine.algorithms.graph.MinHashIndex;
+import com.sorbonne.book_search_engine.algorithms.graph.NearestNeighborGraph;
+import com.sorbonne.book_search_engine.algorithms.graph.PageRank;
+import com.sorbonne.book_search_engine.algorithms.graph.SimilarityGraph;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.Postings;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.SegmentedKeywordIndex;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 
 import java.io.*;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Created by Sylvain in 2022/01.
@@ -20,111 +26,167 @@ import java.util.stream.Collectors;
 @Slf4j
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
 public class GraphRankingConfig {
-    private final KeywordDictionary keywordDictionary;
-    static HashMap<Integer, HashMap<Integer, Double>> jaccardDistanceMap;
+    private final SegmentedKeywordIndex keywordIndex;
 
-    @Bean
-    public HashMap<Integer, Integer> jaccardMapNeighbor() throws IOException, ClassNotFoundException {
-        if (new File("jaccardNeighbor.ser").exists()){
-            log.info("Loading Jaccard Map Neighbors from file to memory...");
-            ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream("jaccardNeighbor.ser"));
-            HashMap<Integer, Integer> jaccardMapNeighbor = (HashMap<Integer, Integer>) inputStream.readObject();
-            inputStream.close();
-            return jaccardMapNeighbor;
-        }
+    @Value("${ranking.parallelism:0}")
+    private int parallelism;
 
-        log.info("Charging Jaccard Map Neighbors...");
-        HashMap<Integer, Integer> jaccardMapNeighbor = new HashMap<>();
-        if (Objects.isNull(jaccardDistanceMap))
-            jaccardDistanceMap = calculateJaccardDistanceMap();
-        for (Map.Entry<Integer, HashMap<Integer, Double>> jaccardDistance: jaccardDistanceMap.entrySet()){
-            int id = jaccardDistance.getKey();
-            HashMap<Integer, Double> distances = jaccardDistance.getValue();
-            distances.remove(id);
-            int idNeighbor = Collections.min(distances.entrySet(), Map.Entry.comparingByValue()).getKey();
-            jaccardMapNeighbor.put(id, idNeighbor);
-        }
+    @Value("${ranking.centrality:closeness}")
+    private String centrality;
 
-        ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream("jaccardNeighbor.ser"));
-        outputStream.writeObject(jaccardMapNeighbor);
-        outputStream.flush();
-        outputStream.close();
+    @Value("${ranking.graph.max-distance:0.9}")
+    private double graphMaxDistance;
+
+    @Value("${ranking.pagerank.damping:0.85}")
+    private double pageRankDamping;
+
+    @Value("${ranking.hyperball.log2m:8}")
+    private int hyperBallLog2m;
+
+    @Value("${similar.knn.k:20}")
+    private int knnK;
+
+    @Value("${suggestion.minhash.bands:20}")
+    private int minHashBands;
 
-        return jaccardMapNeighbor;
+    @Value("${suggestion.minhash.rows:3}")
+    private int minHashRows;
+
+    /**
+     * create the MinHash index of the books giving the candidate suggestions of a book, in near linear time.
+     * it is built again from the keyword index at every start, so that it follows the books added or removed since
+     * @return the MinHash index of every book
+     */
+    @Bean
+    public MinHashIndex minHashIndex() {
+        log.info("Charging MinHash Index of books...");
+        long start = System.currentTimeMillis();
+        SegmentedKeywordIndex.Snapshot snapshot = keywordIndex.getSnapshot();
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        MinHashIndex minHashIndex = MinHashIndex.build(snapshot.bookTermTables(), snapshot.stems(), minHashBands, minHashRows, threads);
+        log.info("Computed MinHash signatures of " + minHashIndex.size() + " books in " + (System.currentTimeMillis() - start) + " ms");
+        return minHashIndex;
     }
 
     /**
-     * create jaccard distance matrix
-     * {Book_id_1, map{Book_id2, distance_book1_book2}}
-     * @return the jaccard distance matrix map
+     * the name of the file of the ranking chosen by `ranking.centrality`
      */
-    private HashMap<Integer, HashMap<Integer, Double>> calculateJaccardDistanceMap() throws IOException, ClassNotFoundException {
-
-        if (new File("jaccard.ser").exists()){
-            log.info("Loading Jaccard Distance Matrix from file to memory...");
-            ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream("jaccard.ser"));
-            HashMap<Integer, HashMap<Integer, Double>> jaccardDistanceMap = (HashMap<Integer, HashMap<Integer, Double>>) inputStream.readObject();
-            inputStream.close();
-            return jaccardDistanceMap;
+    private String rankingFileName(){
+        switch (centrality.toLowerCase(Locale.ROOT)){
+            case "closeness":
+            case "pagerank":
+            case "harmonic":
+            case "hyperball":
+                return centrality.toLowerCase(Locale.ROOT) + ".ser";
+            default:
+                throw new IllegalArgumentException("ranking.centrality must be closeness, pagerank, harmonic or hyperball, not " + centrality);
         }
+    }
+
+    /**
+     * loading the ranking chosen by `ranking.centrality`: closeness, pagerank, harmonic or hyperball
+     * {Book id, centrality value}
+     * @return the map of the chosen centrality in descending order, or null if it was not computed yet
+     */
+    public Map<Integer, Double> loadCentralityRanking() throws IOException, ClassNotFoundException {
+        File rankingFile = new File(rankingFileName());
+        if (!rankingFile.exists())
+            return null;
+        log.info("Loading " + centrality + " Ranking from file to memory...");
+        return readRanking(rankingFile);
+    }
 
-        log.info("Charging Jaccard Distance Matrix...");
-
-        HashMap<Integer, HashMap<Integer, Double>> jaccardDistanceMap = new HashMap<>();
-
-        HashMap<Integer, HashMap<String, Double>> keywordBookTable = keywordDictionary.getKeywordBookTable();
-
-        for (int id1: keywordBookTable.keySet()){
-            for (int id2: keywordBookTable.keySet()){
-                HashMap<String, Double> table1 = keywordBookTable.get(id1);
-                HashMap<String, Double> table2 = keywordBookTable.get(id2);
-                double distance = jaccardDistanceBetweenTable(table1, table2);
-                if (jaccardDistanceMap.containsKey(id1)){
-                    HashMap<Integer, Double> distanceId1 = jaccardDistanceMap.get(id1);
-                    distanceId1.put(id2, distance);
-                    jaccardDistanceMap.put(id1, distanceId1);
-                }else {
-                    HashMap<Integer, Double> distanceId1 = new HashMap<>();
-                    distanceId1.put(id2, distance);
-                    jaccardDistanceMap.put(id1, distanceId1);
-                }
-            }
+    /**
+     * loading the graph of the k nearest books of every book from knn.bin
+     * @return the k-NN graph of books, or null if the file is missing, unreadable or holds another number of
+     * neighbours than `similar.knn.k`
+     */
+    public NearestNeighborGraph loadNearestNeighborGraph() {
+        File graphFile = new File("knn.bin");
+        if (!graphFile.exists())
+            return null;
+        log.info("Loading k-NN Graph of books from file to memory...");
+        try {
+            NearestNeighborGraph graph = NearestNeighborGraph.read(graphFile.toPath());
+            if (graph.getK() == knnK)
+                return graph;
+            log.info("knn.bin holds " + graph.getK() + " neighbours per book instead of " + knnK);
+        }catch (IOException e){
+            log.info(e.getMessage());
         }
+        return null;
+    }
 
-        ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream("jaccard.ser"));
-        outputStream.writeObject(jaccardDistanceMap);
-        outputStream.flush();
-        outputStream.close();
-        return jaccardDistanceMap;
+    /**
+     * compute the jaccard distances of the pairs of books sharing a stem, with the k nearest books of every book.
+     * only the pairs closer than `ranking.graph.max-distance` are kept, for the similarity graph of the pagerank,
+     * harmonic and hyperball rankings, and none for the closeness ranking, which only needs the sums of distances of
+     * every book
+     * @return the jaccard distances
+     */
+    public JaccardDistances computeJaccardDistances() {
+        log.info("Charging Jaccard Distances...");
+        long start = System.currentTimeMillis();
+        HashMap<Integer, Postings> keywordBookTable = keywordIndex.getSnapshot().bookTermTables();
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        boolean closeness = centrality.equalsIgnoreCase("closeness");
+        JaccardDistances jaccardDistances = JaccardDistances.compute(keywordBookTable, knnK, closeness ? 0 : graphMaxDistance,
+                threads);
+        log.info("Computed Jaccard distances of " + jaccardDistances.getNumberOfPairs() + " pairs of " + jaccardDistances.size()
+                + " books sharing a stem on " + threads + " threads in " + (System.currentTimeMillis() - start) + " ms");
+        return jaccardDistances;
+    }
 
+    /**
+     * compute the graph of the k nearest books of every book into knn.bin
+     * @param jaccardDistances the jaccard distances of books
+     * @return the k-NN graph of books
+     */
+    public NearestNeighborGraph computeNearestNeighborGraph(JaccardDistances jaccardDistances) throws IOException {
+        log.info("Charging k-NN Graph of books...");
+        NearestNeighborGraph graph = jaccardDistances.nearestNeighbors();
+        graph.write(new File("knn.bin").toPath());
+        return graph;
     }
 
     /**
-     * create Bean of map of closeness centrality
-     * {Book id, closeness centrality value}
-     * @return the map of closeness centrality
+     * compute the ranking chosen by `ranking.centrality` into its file: closeness, pagerank, harmonic or hyperball
+     * {Book id, centrality value}
+     * @param jaccardDistances the jaccard distances of books
+     * @return the map of the chosen centrality, in descending order
      */
-    @Bean
-    public Map<Integer, Double> closenessCentrality() throws IOException, ClassNotFoundException {
-        if (new File("closeness.ser").exists()){
-            log.info("Loading Closeness Centrality Ranking from file to memory...");
-            ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream("closeness.ser"));
-            Map<Integer, Double> closenessMap = (Map<Integer, Double>) inputStream.readObject();
-            inputStream.close();
-            return closenessMap;
+    public Map<Integer, Double> computeCentralityRanking(JaccardDistances jaccardDistances) throws IOException {
+        File rankingFile = new File(rankingFileName());
+        Map<Integer, Double> result;
+        switch (centrality.toLowerCase(Locale.ROOT)){
+            case "closeness":
+                result = closenessCentrality(jaccardDistances);
+                break;
+            case "pagerank":
+                result = pageRankCentrality(similarityGraph(jaccardDistances));
+                break;
+            case "harmonic":
+                result = harmonicCentrality(similarityGraph(jaccardDistances));
+                break;
+            default:
+                result = hyperBallCentrality(similarityGraph(jaccardDistances));
         }
+        writeRanking(rankingFile, result);
+        return result;
+    }
 
+    /**
+     * create the map of closeness centrality, from the sum of the distances of a book to every book
+     * {Book id, closeness centrality value}
+     * @return the map of closeness centrality, in descending order
+     */
+    private Map<Integer, Double> closenessCentrality(JaccardDistances jaccardDistances) {
         log.info("Charging Closeness Centrality Ranking...");
-        if (Objects.isNull(jaccardDistanceMap))
-            jaccardDistanceMap = calculateJaccardDistanceMap();
-        int numberBooks = jaccardDistanceMap.size();
+        int numberBooks = jaccardDistances.size();
         HashMap<Integer, Double> closenessMap = new HashMap<>();
-        for (Map.Entry<Integer, HashMap<Integer, Double>> jaccardDistance: jaccardDistanceMap.entrySet()){
-            int id = jaccardDistance.getKey();
-            HashMap<Integer, Double> distances = jaccardDistance.getValue();
-            double sumDistance = distances.values().stream().mapToDouble(Double::doubleValue).sum();
-            double closeness = (numberBooks - 1) / sumDistance;
-            closenessMap.put(id, closeness);
+        for (Map.Entry<Integer, Double> sumDistance: jaccardDistances.sumsOfDistances().entrySet()){
+            double closeness = (numberBooks - 1) / sumDistance.getValue();
+            closenessMap.put(sumDistance.getKey(), closeness);
         }
         List<Map.Entry<Integer, Double>> list = new ArrayList<>(closenessMap.entrySet());
         list.sort((o1, o2) -> o2.getValue().compareTo(o1.getValue()));
@@ -133,56 +195,95 @@ public class GraphRankingConfig {
             Map.Entry<Integer, Double> entry = it.next();
             result.put(entry.getKey(), entry.getValue());
         }
+        return result;
+    }
 
-        ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream("closeness.ser"));
-        outputStream.writeObject(result);
-        outputStream.flush();
-        outputStream.close();
+    /**
+     * create the map of PageRank of books over the similarity graph, weighted by the similarity of books
+     * {Book id, PageRank value}
+     * @return the map of PageRank, in descending order
+     */
+    private Map<Integer, Double> pageRankCentrality(SimilarityGraph graph) {
+        log.info("Charging PageRank Ranking...");
+        long start = System.currentTimeMillis();
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        double[] ranks = PageRank.compute(graph, pageRankDamping, 1e-10, 100, threads);
+        log.info("Computed PageRank of " + graph.size() + " books on " + threads + " threads in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return descendingRanking(graph, ranks);
+    }
 
-        return result;
+    /**
+     * create the map of harmonic centrality of books, from the shortest paths of the similarity graph
+     * {Book id, harmonic centrality value}
+     * @return the map of harmonic centrality, in descending order
+     */
+    private Map<Integer, Double> harmonicCentrality(SimilarityGraph graph) {
+        log.info("Charging Harmonic Centrality Ranking...");
+        long start = System.currentTimeMillis();
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        double[] centralities = HarmonicCentrality.compute(graph, threads, done ->
+                log.info("Harmonic centrality: shortest paths from " + done + " of " + graph.size() + " books"));
+        log.info("Computed Harmonic Centrality of " + graph.size() + " books on " + threads + " threads in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return descendingRanking(graph, centralities);
     }
 
-    private static Double jaccardDistanceBetweenTable(HashMap<String, Double> table1, HashMap<String, Double> table2){
-        double dividend = 0;
-        double divisor = 0;
-
-        HashMap<String, Double> tableSmaller, tableBigger;
-        if (table1.size() > table2.size()){
-            tableBigger = table1;
-            tableSmaller = table2;
-        }else {
-            tableBigger = table2;
-            tableSmaller = table1;
-        }
+    /**
+     * create the map of approximate harmonic centrality of books by HyperBall, from the numbers of edges of the
+     * shortest paths of the similarity graph, in near linear time for large libraries. edges are not weighted by the
+     * distance of their books, unlike the harmonic ranking, so both rankings may differ
+     * {Book id, approximate harmonic centrality value}
+     * @return the map of approximate harmonic centrality, in descending order
+     */
+    private Map<Integer, Double> hyperBallCentrality(SimilarityGraph graph) {
+        log.info("Charging HyperBall Centrality Ranking...");
+        long start = System.currentTimeMillis();
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        double[] centralities = HyperBall.compute(graph, hyperBallLog2m, threads);
+        log.info("Computed HyperBall Centrality of " + graph.size() + " books with " + (1 << hyperBallLog2m) + " registers per counter on "
+                + threads + " threads in " + (System.currentTimeMillis() - start) + " ms");
+        return descendingRanking(graph, centralities);
+    }
 
-        int i = 0;
-        for (Map.Entry<String, Double> entry: tableBigger.entrySet()){
-            String stem = entry.getKey();
-            Double relevance1 = entry.getValue();
-            Double relevance2 = tableSmaller.get(stem);
-            if (relevance2 != null){
-                dividend += Math.max(relevance1, relevance2) - Math.min(relevance1, relevance2);
-                divisor += Math.max(relevance1, relevance2);
-            }
-        }
+    /**
+     * build the graph linking the books closer than `ranking.graph.max-distance` from the pairs kept by the jaccard
+     * distances, without reading the other pairs
+     * @return the similarity graph of books
+     */
+    private SimilarityGraph similarityGraph(JaccardDistances jaccardDistances) {
+        SimilarityGraph graph = jaccardDistances.similarityGraph();
+        log.info("Linked " + graph.size() + " books by " + graph.getNumberOfEdges() / 2 + " similarities under distance " + graphMaxDistance);
+        return graph;
+    }
 
-        /*
-        for (int i = 0; i < Math.min(table1.size(), table2.size()); i++){
-            String stem1 = table1.get(i).getKey();
-            String stem2 = table2.get(i).getKey();
-            if (!stem1.equals(stem2)){
-                System.out.println("count: " + i);
-                break;
-            }
-            double relevance1 = table1.get(i).getValue();
-            double relevance2 = table2.get(i).getValue();
-            dividend += Math.max(relevance1, relevance2) - Math.min(relevance1, relevance2);
-            divisor += Math.max(relevance1, relevance2);
-        }
-         */
-        if (divisor == 0)
-            return 1.0;
-        return dividend / divisor;
+    /**
+     * @param graph the graph numbering the books
+     * @param values the value of each book by ordinal in the graph
+     * @return the map of values, in descending order, books of the same value in the order of their ids
+     */
+    private static Map<Integer, Double> descendingRanking(SimilarityGraph graph, double[] values){
+        Integer[] ordinals = new Integer[graph.size()];
+        for (int book = 0; book < ordinals.length; book++)
+            ordinals[book] = book;
+        Arrays.sort(ordinals, (o1, o2) -> Double.compare(values[o2], values[o1]));
+        Map<Integer, Double> result = new LinkedHashMap<>();
+        for (int book: ordinals)
+            result.put(graph.id(book), values[book]);
+        return result;
+    }
 
+    private static Map<Integer, Double> readRanking(File file) throws IOException, ClassNotFoundException {
+        ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(file));
+        Map<Integer, Double> ranking = (Map<Integer, Double>) inputStream.readObject();
+        inputStream.close();
+        return ranking;
+    }
+
+    private static void writeRanking(File file, Map<Integer, Double> ranking) throws IOException {
+        ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(file));
+        outputStream.writeObject(ranking);
+        outputStream.flush();
+        outputStream.close();
     }
 }
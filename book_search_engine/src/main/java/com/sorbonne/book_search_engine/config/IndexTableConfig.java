@@ -1,21 +1,23 @@
 package com.sorbonne.book_search_engine.config;
 
-import com.sorbonne.book_search_engine.algorithms.keyword.Keyword;
-import com.sorbonne.book_search_engine.algorithms.keyword.KeywordsExtractor;
-import com.sorbonne.book_search_engine.algorithms.keyword.StemmerLanguage;
 import com.sorbonne.book_search_engine.algorithms.keyword.config.KeywordDictionary;
+import com.sorbonne.book_search_engine.algorithms.keyword.config.KeywordDictionaryBuilder;
+import com.sorbonne.book_search_engine.algorithms.keyword.config.KeywordIndexBuilder;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.FieldWordIndex;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.KeywordIndex;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.KeywordIndexWriter;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.SegmentedKeywordIndex;
 import com.sorbonne.book_search_engine.entity.Book;
 import com.sorbonne.book_search_engine.entity.Person;
-import javafx.util.Pair;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 
 import java.io.*;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Created by Sylvain in 2022/01.
@@ -24,127 +26,98 @@ import java.util.stream.Collectors;
 @Slf4j
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
 public class IndexTableConfig {
+    private final LibraryLog libraryLog;
+
+    @Value("${index.build.parallelism:0}")
+    private int buildParallelism;
+
+    @Value("${index.build.memory-budget-mb:256}")
+    private long buildMemoryBudgetMb;
+
+    @Value("${index.positions:true}")
+    private boolean positions;
 
     /**
-     * loading a keyword dictionary from file or initializing a new instance by some calculation
+     * mapping the segments of the keyword index to memory, the main segment is first written from a keyword dictionary
+     * if there is no index yet
      * @param library the (Integer, Book) library
-     * @return a Keyword Dictionary
+     * @return a Keyword Index backed by the mapped files
      */
     @Bean
-    public KeywordDictionary keywordDictionary(Map<Integer, Book> library) throws IOException, ClassNotFoundException {
+    public SegmentedKeywordIndex keywordIndex(Map<Integer, Book> library) throws IOException, ClassNotFoundException {
+        File indexFile = new File("keywords.idx");
+        File manifestFile = new File("keywords.manifest");
+        boolean outdated = false;
+        if (indexFile.exists() || manifestFile.exists()){
+            try {
+                log.info("Mapping index of keywords from file to memory...");
+                return SegmentedKeywordIndex.open(indexFile.toPath(), manifestFile.toPath());
+            }catch (KeywordIndex.UnsupportedVersionException e){
+                // index written by a previous version, built again from the library which may have changed since
+                log.info(e.getMessage() + ", building the index of keywords again...");
+                SegmentedKeywordIndex.deleteFiles(indexFile.toPath(), manifestFile.toPath());
+                outdated = true;
+            }
+        }
 
-        if (new File("keywordsDictionary.ser").exists()){
-            log.info("Loading dictionary of keywords from file to memory...");
+        KeywordDictionary dictionary = null;
+        if (!outdated && new File("keywordsDictionary.ser").exists()){
+            // index built by a previous version, converted once to the new format
+            log.info("Converting dictionary of keywords from keywordsDictionary.ser to keywords.idx...");
             ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream("keywordsDictionary.ser"));
-            KeywordDictionary dictionary = (KeywordDictionary) inputStream.readObject();
+            dictionary = (KeywordDictionary) inputStream.readObject();
             inputStream.close();
-            return dictionary;
-        }
-
-        log.info("Charging dictionary of keywords...");
-
-        // a map of <word, stem>
-        HashMap<String, String> word2Keyword = new HashMap<>();
-        // a map of <Stem, map <Id_book, Relevancy_Keyword_Book>>
-        HashMap<String, HashMap<Integer, Double>> keywordInBooks = new HashMap<>();
-        // a map of <Id_book, map<Stem, Relevance>>
-        HashMap<Integer, HashMap<String, Double>> keywordBookTable = new HashMap<>();
-
-        FileReader reader;
-
-        StemmerLanguage languageEn = StemmerLanguage.ENGLISH;
-        StemmerLanguage languageFr = StemmerLanguage.FRENCH;
-        KeywordsExtractor extractorEn = new KeywordsExtractor(languageEn);
-        KeywordsExtractor extractorFr = new KeywordsExtractor(languageFr);
-        List<Keyword> keywords;
-        for (Book book: library.values()){
-            int bookId = book.getId();
-            String bookText = "books/" + bookId + ".txt";
-            try {
-                reader = new FileReader(bookText);
-                if (book.getLanguages().contains("en")) {
-                    keywords = extractorEn.extract(reader);
-                }
-                else if (book.getLanguages().contains("fr")){
-                    keywords = extractorFr.extract(reader);
-                }else {
-                    continue;
-                }
-                for (Keyword keyword: keywords){
-                    String stem = keyword.getStem();
-                    Set<String> words = keyword.getWords();
-                    double relevance = keyword.getRelevance();
-
-                    // word2Keyword
-                    for (String word: words){
-                        word2Keyword.put(word, stem);
-                    }
-
-                    // keywordInBooks
-                    if (keywordInBooks.containsKey(stem)){
-                        HashMap<Integer, Double> keywordRelevance = keywordInBooks.get(stem);
-                        keywordRelevance.put(bookId, relevance);
-                        keywordInBooks.put(stem, keywordRelevance);
-                    }else {
-                        HashMap<Integer, Double> keywordRelevance = new HashMap<>();
-                        keywordRelevance.put(bookId, relevance);
-                        keywordInBooks.put(stem, keywordRelevance);
-                    }
-
-                    // keywordBookTable, in fact, a reverse version of keywordInBooks
-                    if (keywordBookTable.containsKey(bookId)){
-                        HashMap<String, Double> stemRelevanceMap = keywordBookTable.get(bookId);
-                        stemRelevanceMap.put(stem, relevance);
-                        keywordBookTable.put(bookId, stemRelevanceMap);
-                    }else {
-                        HashMap<String, Double> stemRelevanceMap = new HashMap<>();
-                        stemRelevanceMap.put(stem, relevance);
-                        keywordBookTable.put(bookId, stemRelevanceMap);
-                    }
-                }
-
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (dictionary.getBookLengths() == null) {
+                // written before book lengths were kept, which the BM25 ranking needs
+                log.info("keywordsDictionary.ser has no book lengths, charging index of keywords...");
+                dictionary = null;
             }
         }
+        if (dictionary != null) {
+            KeywordIndexWriter.write(dictionary, indexFile.toPath());
+        }else {
+            log.info("Charging index of keywords...");
+            buildKeywordIndex(library, indexFile);
+        }
 
-        KeywordDictionary dictionary = new KeywordDictionary(word2Keyword, keywordInBooks, keywordBookTable);
-        ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream("keywordsDictionary.ser"));
-        outputStream.writeObject(dictionary);
-        outputStream.flush();
-        outputStream.close();
-        return dictionary;
+        log.info("Mapping index of keywords from file to memory...");
+        return SegmentedKeywordIndex.open(indexFile.toPath(), manifestFile.toPath());
+    }
+
+    /**
+     * writing a new keyword index by extracting the keywords of every book of the library,
+     * on all cores unless `index.build.parallelism` is set to 1, the keywords being written to partial index files
+     * whenever they take more than `index.build.memory-budget-mb` in memory
+     * @param library the (Integer, Book) library
+     * @param indexFile the index file
+     * @throws IOException when error while writing the files occurs
+     */
+    private void buildKeywordIndex(Map<Integer, Book> library, File indexFile) throws IOException {
+        int parallelism = buildParallelism > 0 ? buildParallelism : Runtime.getRuntime().availableProcessors();
+        if (parallelism > 1)
+            log.info("Extracting keywords on " + parallelism + " threads...");
+        KeywordIndexBuilder builder = new KeywordIndexBuilder(new KeywordDictionaryBuilder(positions),
+                buildMemoryBudgetMb << 20, parallelism);
+        builder.build(library.values(), indexFile.toPath());
     }
 
     /**
-     * loading a title dictionary from file or initializing a new instance by some calculation
+     * loading a title index from file or initializing a new instance by some calculation,
+     * the file being only read if the library did not change since it was written
      * @param library the (Integer, Book) library
-     * @return HashMap<String, HashSet<Integer>>: key for keyword, value for ids of books containing the keyword
+     * @return the index of the words of titles: ids of books containing each keyword, and the automaton of the keywords
      */
     @Bean
-    public HashMap<String, HashSet<Integer>> titleDictionary(Map<Integer, Book> library) throws IOException, ClassNotFoundException {
-        if (new File("titles.ser").exists()){
+    public FieldWordIndex titleIndex(Map<Integer, Book> library) throws IOException, ClassNotFoundException {
+        if (new File("titles.ser").exists() && !libraryLog.hasChanges()){
             log.info("Loading index table of titles from file to memory...");
-            ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream("titles.ser"));
-            HashMap<String, HashSet<Integer>> titleDictionary = (HashMap<String, HashSet<Integer>>) inputStream.readObject();
-            inputStream.close();
-            return titleDictionary;
+            return new FieldWordIndex(readDictionary(new File("titles.ser")));
         }
 
         log.info("Charging index tables of titles...");
         HashMap<String, HashSet<Integer>> titleDictionary = new HashMap<>();
         for (Book book: library.values()){
-            String title = book.getTitle();
-            String languageCode;
-            if(book.getLanguages().contains("en")){
-                languageCode = "en";
-            }else if (book.getLanguages().contains("fr")){
-                languageCode = "fr";
-            }else {
-                continue;
-            }
-            HashSet<String> words = splitWords(title, languageCode);
-            for (String word: words) {
+            for (String word: titleWords(book)) {
                 if (titleDictionary.containsKey(word)){
                     HashSet<Integer> ids = titleDictionary.get(word);
                     ids.add(book.getId());
@@ -156,45 +129,27 @@ public class IndexTableConfig {
                 }
             }
         }
-        ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream("titles.ser"));
-        outputStream.writeObject(titleDictionary);
-        outputStream.flush();
-        outputStream.close();
-        return titleDictionary;
+        writeDictionary(new File("titles.ser"), titleDictionary);
+        return new FieldWordIndex(titleDictionary);
     }
 
     /**
-     * loading an author dictionary from file or initializing a new instance by some calculation
+     * loading an author index from file or initializing a new instance by some calculation,
+     * the file being only read if the library did not change since it was written
      * @param library the (Integer, Book) library
-     * @return HashMap<String, HashSet<Integer>>: key for keyword, value for ids of books' authors containing the keyword
+     * @return the index of the words of authors: ids of books' authors containing each keyword, and the automaton of the keywords
      */
     @Bean
-    public HashMap<String, HashSet<Integer>> authorDictionary(Map<Integer, Book> library) throws IOException, ClassNotFoundException{
-        if (new File("authors.ser").exists()){
+    public FieldWordIndex authorIndex(Map<Integer, Book> library) throws IOException, ClassNotFoundException{
+        if (new File("authors.ser").exists() && !libraryLog.hasChanges()){
             log.info("Loading index table of authors from file to memory...");
-            ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream("authors.ser"));
-            HashMap<String, HashSet<Integer>> titleDictionary = (HashMap<String, HashSet<Integer>>) inputStream.readObject();
-            inputStream.close();
-            return titleDictionary;
+            return new FieldWordIndex(readDictionary(new File("authors.ser")));
         }
 
         log.info("Charging index tables of authors...");
         HashMap<String, HashSet<Integer>> authorDictionary = new HashMap<>();
         for (Book book: library.values()){
-            ArrayList<Person> authors = book.getAuthors();
-            String languageCode;
-            if(book.getLanguages().contains("en")){
-                languageCode = "en";
-            }else if (book.getLanguages().contains("fr")){
-                languageCode = "fr";
-            }else {
-                continue;
-            }
-            HashSet<String> words = new HashSet<>();
-            for (Person author: authors) {
-                words.addAll(splitWords(author.getName(), languageCode));
-            }
-            for (String word: words) {
+            for (String word: authorWords(book)) {
                 if (authorDictionary.containsKey(word)){
                     HashSet<Integer> ids = authorDictionary.get(word);
                     ids.add(book.getId());
@@ -206,11 +161,69 @@ public class IndexTableConfig {
                 }
             }
         }
-        ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream("authors.ser"));
-        outputStream.writeObject(authorDictionary);
+        writeDictionary(new File("authors.ser"), authorDictionary);
+        return new FieldWordIndex(authorDictionary);
+    }
+
+    /**
+     * write the title and author indexes into titles.ser and authors.ser only, the library being compacted into
+     * books.ser by {@link LibraryLog#compact} right after, so that both are read again at the next start
+     * @param titleIndex the title index
+     * @param authorIndex the author index
+     * @throws IOException when error while writing the files occurs
+     */
+    public void saveFieldIndexes(FieldWordIndex titleIndex, FieldWordIndex authorIndex) throws IOException {
+        writeDictionary(new File("titles.ser"), titleIndex.toDictionary());
+        writeDictionary(new File("authors.ser"), authorIndex.toDictionary());
+    }
+
+    /**
+     * @param book a book
+     * @return the keywords of the title of the book, none if the book is neither in english nor in french
+     */
+    public static HashSet<String> titleWords(Book book) throws IOException {
+        String languageCode = languageCode(book);
+        if (languageCode == null)
+            return new HashSet<>();
+        return splitWords(book.getTitle(), languageCode);
+    }
+
+    /**
+     * @param book a book
+     * @return the keywords of the names of the authors of the book, none if the book is neither in english nor in french
+     */
+    public static HashSet<String> authorWords(Book book) throws IOException {
+        String languageCode = languageCode(book);
+        HashSet<String> words = new HashSet<>();
+        if (languageCode == null)
+            return words;
+        for (Person author: book.getAuthors()) {
+            words.addAll(splitWords(author.getName(), languageCode));
+        }
+        return words;
+    }
+
+    private static String languageCode(Book book) {
+        if(book.getLanguages().contains("en")){
+            return "en";
+        }else if (book.getLanguages().contains("fr")){
+            return "fr";
+        }
+        return null;
+    }
+
+    private static HashMap<String, HashSet<Integer>> readDictionary(File file) throws IOException, ClassNotFoundException {
+        ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(file));
+        HashMap<String, HashSet<Integer>> dictionary = (HashMap<String, HashSet<Integer>>) inputStream.readObject();
+        inputStream.close();
+        return dictionary;
+    }
+
+    private static void writeDictionary(File file, HashMap<String, HashSet<Integer>> dictionary) throws IOException {
+        ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(file));
+        outputStream.writeObject(dictionary);
         outputStream.flush();
         outputStream.close();
-        return authorDictionary;
     }
 
     /**
@@ -3,11 +3,9 @@ package com.sorbonne.book_search_engine.config;
 import com.sorbonne.book_search_engine.entity.Book;
 import com.sorbonne.book_search_engine.entity.GutendexData;
 import com.sorbonne.book_search_engine.service.FetchBookService;
-import javafx.util.Pair;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.support.PagedListHolder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
@@ -33,8 +31,11 @@ public class InitLibraryConfig {
     @Autowired
     private FetchBookService fetchBookService;
 
+    @Autowired
+    private LibraryLog libraryLog;
+
     /**
-     * loading books from Gutenberg project, or from file
+     * loading books from Gutenberg project, or from file with the changes of the library log since it was written
      * @param restTemplate a modified RestTemplate
      * @param httpHeaders HttpHeaders witt accept JSON
      * @return ArrayList of Book
@@ -49,6 +50,9 @@ public class InitLibraryConfig {
             ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream("books.ser"));
             library = (Map<Integer, Book>) inputStream.readObject();
             inputStream.close();
+            int changes = libraryLog.replay(library);
+            if (changes > 0)
+                log.info("Replayed " + changes + " changes of the library from books.log");
             return library;
         }
 
@@ -87,39 +91,7 @@ public class InitLibraryConfig {
         System.out.println();
 
         log.info("Saving " + library.size() + " books from memory to local file...");
-        ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream("books.ser"));
-        outputStream.writeObject(library);
-        outputStream.flush();
-        outputStream.close();
+        libraryLog.compact(library);
         return library;
     }
-
-    /**
-     * separate the books library to many lists (pageable), each list contains 20 books
-     * @return the PagedListHolder of books ordered by closeness centrality, each page containing 20 books
-     */
-    @Bean
-    public PagedListHolder<Book> pagedLibrary(Map<Integer, Book> library, Map<Integer, Double> closenessCentrality){
-        List<Book> books = new ArrayList<>();
-        List<Integer> orderedIds = new ArrayList<>(closenessCentrality.keySet());
-        for (Integer id: orderedIds) {
-            books.add(library.get(id));
-        }
-        PagedListHolder<Book> pagedLibrary = new PagedListHolder<>(books);
-        pagedLibrary.setPageSize(20);
-        return pagedLibrary;
-    }
-
-    @Bean
-    public List<Pair<Integer, String>> top100BooksPreview(Map<Integer, Book> library, Map<Integer, Double> closenessCentrality){
-        List<Pair<Integer, String>> result = new ArrayList<>();
-        Set<Integer> ids = closenessCentrality.keySet();
-        int i = 0;
-        for (Integer id: ids){
-            result.add(new Pair<>(id, library.get(id).getTitle()));
-            i++;
-            if (i == 100) break;
-        }
-        return result;
-    }
 }
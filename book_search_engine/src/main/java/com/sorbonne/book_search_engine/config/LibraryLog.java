@@ -0,0 +1,129 @@
+package com.sorbonne.book_search_engine.config;
+
+import com.sorbonne.book_search_engine.entity.Book;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Append-only log of the changes of the library since books.ser was written: every book added or updated, and
+ * every book removed, one record after the other. The library is books.ser with the log replayed on it, and the log
+ * is compacted into books.ser with the merge of the keyword segments, so that a change of one book writes one record
+ * instead of the whole library.
+ *
+ * Record layout (big endian):
+ * <pre>
+ * PUT     1, id, length, serialized Book[length]
+ * REMOVE  2, id
+ * </pre>
+ * A record cut at the end of the log, by a crash while it was written, is ignored.
+ */
+@Component
+@Slf4j
+public class LibraryLog {
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final File libraryFile;
+    private final File logFile;
+
+    public LibraryLog() {
+        this(new File("books.ser"), new File("books.log"));
+    }
+
+    /**
+     * @param libraryFile the serialized library
+     * @param logFile the log of the changes since `libraryFile` was written
+     */
+    LibraryLog(File libraryFile, File logFile) {
+        this.libraryFile = libraryFile;
+        this.logFile = logFile;
+    }
+
+    /**
+     * @return true if the library changed since books.ser was written
+     */
+    public boolean hasChanges() {
+        return logFile.length() > 0;
+    }
+
+    /**
+     * apply the changes of the log to the library read from books.ser
+     * @param library the library of books.ser
+     * @return the number of changes applied
+     */
+    public synchronized int replay(Map<Integer, Book> library) throws IOException, ClassNotFoundException {
+        if (!hasChanges())
+            return 0;
+        int changes = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            while (true) {
+                int type = input.read();
+                if (type < 0)
+                    break;
+                int id = input.readInt();
+                if (type == PUT) {
+                    byte[] bytes = new byte[input.readInt()];
+                    input.readFully(bytes);
+                    try (ObjectInputStream bookInput = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                        library.put(id, (Book) bookInput.readObject());
+                    }
+                } else if (type == REMOVE) {
+                    library.remove(id);
+                } else {
+                    throw new IOException(logFile + " has a record of unknown type " + type);
+                }
+                changes++;
+            }
+        } catch (EOFException e) {
+            log.info(logFile + " ends with a cut record, ignored");
+        }
+        return changes;
+    }
+
+    /**
+     * append a book added or updated to the log
+     * @param book the book
+     */
+    public synchronized void put(Book book) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream bookOutput = new ObjectOutputStream(bytes)) {
+            bookOutput.writeObject(book);
+        }
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)))) {
+            output.writeByte(PUT);
+            output.writeInt(book.getId());
+            output.writeInt(bytes.size());
+            bytes.writeTo(output);
+        }
+    }
+
+    /**
+     * append a book removed to the log
+     * @param id the id of the book
+     */
+    public synchronized void remove(int id) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)))) {
+            output.writeByte(REMOVE);
+            output.writeInt(id);
+        }
+    }
+
+    /**
+     * write the whole library into books.ser, through a temporary file, and empty the log
+     * @param library the library, with every change of the log
+     */
+    public synchronized void compact(Map<Integer, Book> library) throws IOException {
+        File tmp = new File(libraryFile.getPath() + ".tmp");
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            outputStream.writeObject(library);
+        }
+        Files.move(tmp.toPath(), libraryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // a crash before the log is emptied only replays changes already in books.ser
+        Files.deleteIfExists(logFile.toPath());
+    }
+}
@@ -0,0 +1,79 @@
+package com.sorbonne.book_search_engine.controller;
+
+import com.sorbonne.book_search_engine.entity.Book;
+import com.sorbonne.book_search_engine.service.IndexBookService;
+import com.sorbonne.book_search_engine.service.RegExCacheService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Created by Sylvain in 2022/01.
+ */
+@RestController
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@RequestMapping("/api/admin")
+@Validated
+@Slf4j
+public class AdminBookController {
+    private final IndexBookService indexBookService;
+    private final RegExCacheService regExCacheService;
+
+    /**
+     * POST add a book to the library, or index it again if it is already in the library
+     * @param id the book's id in the Gutenberg project
+     * @return ResponseEntity<Book> the indexed book, or a 404 error if the book cannot be downloaded
+     */
+    @PostMapping("/books/{id}")
+    public ResponseEntity<Book> addBook(@PathVariable(required = true) int id) throws IOException {
+        log.info("POST /admin/books/" + id);
+        Book book = indexBookService.addBook(id);
+        if (book != null)
+            return ResponseEntity.ok(book);
+        else
+            return ResponseEntity.notFound().build();
+    }
+
+    /**
+     * DELETE remove a book from the library
+     * @param id the book's id
+     * @return ResponseEntity<Book> the removed book, or a 404 error if the book is not in the library
+     */
+    @DeleteMapping("/books/{id}")
+    public ResponseEntity<Book> removeBook(@PathVariable(required = true) int id) throws IOException {
+        log.info("DELETE /admin/books/" + id);
+        Book book = indexBookService.removeBook(id);
+        if (book != null)
+            return ResponseEntity.ok(book);
+        else
+            return ResponseEntity.notFound().build();
+    }
+
+    /**
+     * POST merge the delta segments of the keyword index in the background
+     * @return ResponseEntity 202 accepted
+     */
+    @PostMapping("/index/merge")
+    public ResponseEntity<Void> mergeIndex() {
+        log.info("POST /admin/index/merge");
+        indexBookService.mergeSegments();
+        return ResponseEntity.accepted().build();
+    }
+
+    /**
+     * GET statistics of the caches of regex searches
+     * @return ResponseEntity<Map<String, Map<String, Number>>> the number of entries, hits, misses and evictions
+     * of the cache of compiled automata and of the cache of matched words
+     */
+    @GetMapping("/cache/regex")
+    public ResponseEntity<Map<String, Map<String, Number>>> getRegExCacheStats() {
+        log.info("GET /admin/cache/regex");
+        return ResponseEntity.ok(regExCacheService.getStats());
+    }
+}
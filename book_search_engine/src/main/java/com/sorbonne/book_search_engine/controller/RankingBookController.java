@@ -1,5 +1,6 @@
 package com.sorbonne.book_search_engine.controller;
 
+import com.sorbonne.book_search_engine.service.RankingService;
 import javafx.util.Pair;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -11,7 +12,6 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -23,17 +23,16 @@ import java.util.Set;
 @Validated
 @Slf4j
 public class RankingBookController {
-    private final Map<Integer, Double> closenessCentrality;
-    private final List<Pair<Integer, String>> top100BooksPreview;
+    private final RankingService rankingService;
 
     /**
-     * GET ranking of books id by closeness centrality
+     * GET ranking of books id by the centrality chosen by `ranking.centrality`, from the last published ranking
      * @return ResponseEntity<Set<Integer>>
      */
     @GetMapping("/ranking")
     public ResponseEntity<Set<Integer>> closeness(){
         log.info("GET /ranking");
-        return ResponseEntity.ok(closenessCentrality.keySet());
+        return ResponseEntity.ok(rankingService.getSnapshot().getRanking().keySet());
     }
 
     /**
@@ -43,6 +42,6 @@ public class RankingBookController {
     @GetMapping("/ranking/top100books")
     public ResponseEntity<List<Pair<Integer, String>>> getTop100BooksPreview(){
         log.info("GET /ranking/top100books");
-        return ResponseEntity.ok(top100BooksPreview);
+        return ResponseEntity.ok(rankingService.getSnapshot().getTop100BooksPreview());
     }
 }
@@ -1,13 +1,17 @@
 package com.sorbonne.book_search_engine.controller;
 
+import com.sorbonne.book_search_engine.algorithms.regex.RegExTooComplexException;
 import com.sorbonne.book_search_engine.entity.Book;
 import com.sorbonne.book_search_engine.entity.Result;
+import com.sorbonne.book_search_engine.entity.ScoredBook;
+import com.sorbonne.book_search_engine.entity.SimilarBook;
 import com.sorbonne.book_search_engine.service.SearchBookService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
@@ -53,41 +57,90 @@ public class SearchBookController {
             return ResponseEntity.notFound().build();
     }
 
+    /**
+     * GET the most similar books of a book, from the graph of nearest books by Jaccard distance
+     * @param id the book's id
+     * @param k the number of books, 10 by default, at most `similar.knn.k`
+     * @return ResponseEntity<List<SimilarBook>> the similar books with their distance, nearest first, or a 404 error
+     * if the book is not found
+     */
+    @GetMapping("/books/{id}/similar")
+    public ResponseEntity<List<SimilarBook>> similarBooks(@PathVariable(required = true) int id,
+                                                          @Min(1) @RequestParam(name = "k", required = false, defaultValue = "10") int k){
+        log.info("GET /books/" + id + "/similar?k=" + k);
+        if (searchBookService.getBookById(id) == null)
+            return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(searchBookService.getSimilarBooks(id, k));
+    }
+
     /**
      * GET books by searching keyword or regex in its content
      * @param content the keyword or regex string
-     * @param closeness boolean, ordered by closeness centrality or not, by default is not (ordered by relevance score to keyword)
+     * @param closeness boolean, ordered by centrality (`ranking.centrality`) or not, by default is not (ordered by relevance score to keyword)
+     * @param phrase boolean, `content` is searched as a phrase instead of keywords or regex, by default is not
+     * @param slop with `phrase`, number of extra words allowed between the words of the phrase in any order, 0 by default for the exact phrase
+     * @param anyWord boolean, books containing any keyword are found instead of books containing all of them, by default is not
+     * @param offset number of books skipped from the start of the result, 0 by default
+     * @param limit maximal number of books returned, all of them by default
      * @return ResponseEntity<List<Book>>
      */
     @GetMapping(value = "/books", params = "search")
     public ResponseEntity<List<Book>> booksByWord(@NotBlank @NotNull @RequestParam(name = "search", required = true) String content,
-                                                  @RequestParam(name = "closeness", required = false, defaultValue = "false") boolean closeness){
-        log.info("GET /books?search=" + content + "&closeness=" + closeness);
+                                                  @RequestParam(name = "closeness", required = false, defaultValue = "false") boolean closeness,
+                                                  @RequestParam(name = "phrase", required = false, defaultValue = "false") boolean phrase,
+                                                  @Min(0) @RequestParam(name = "slop", required = false, defaultValue = "0") int slop,
+                                                  @RequestParam(name = "anyWord", required = false, defaultValue = "false") boolean anyWord,
+                                                  @Min(0) @RequestParam(name = "offset", required = false, defaultValue = "0") int offset,
+                                                  @Min(1) @RequestParam(name = "limit", required = false) Integer limit){
+        log.info("GET /books?search=" + content + "&closeness=" + closeness + (phrase ? "&phrase=true&slop=" + slop : "")
+                + (anyWord ? "&anyWord=true" : "") + (offset > 0 ? "&offset=" + offset : "") + (limit != null ? "&limit=" + limit : ""));
+        // only the books up to the end of the page are ranked, unless they are all ordered again by closeness
+        int k = limit == null || closeness ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, (long) Math.max(0, offset) + limit);
+
+        if (phrase) {
+            // search books by phrase, using the positions of words stored in the index
+            List<Book> resultPhrase = searchBookService.getBooksByPhrase(content, slop, k);
+            if (closeness)
+                resultPhrase = searchBookService.orderBooksByCloseness(resultPhrase);
+            return ResponseEntity.ok(page(resultPhrase, offset, limit));
+        }
 
-        // search books by keyword, that's to say `content` is not regarded as an regex
+        // search books by keyword, that's to say `content` is not regarded as an regex.
+        // keyword results come first in the union, so the page is within the k best of them or they are all there
         String[] words = content.split("\\s+");
-        List<List<Book>> resultsKeyword = new ArrayList<>();
+        List<Book> resultKeyword = searchBookService.getBooksByWords(words, anyWord, k);
 
-        for (String word: words) {
-            resultsKeyword.add(searchBookService.getBooksByWord(word));
-        }
-        List<Book> resultKeyword = retainIntersection(resultsKeyword);
-
-        // search books by regex, that's to say `content` is regarded as an regex
-        List<Book> resultRegex = new ArrayList<>(searchBookService.getBooksByRegex(content));
+        // search books by regex, that's to say `content` is regarded as an regex.
+        // at most k of them are keyword results too, so the k best regex results fill the union up to k books
+        List<Book> resultRegex = new ArrayList<>(searchBookService.getBooksByRegex(content, k));
 
         // remove duplicates of resultKeyword & resultRegex and make union
         List<Book> finalUniqueResult = unionAndRemoveDuplicates(resultKeyword, resultRegex);
 
         if (closeness)
             finalUniqueResult = searchBookService.orderBooksByCloseness(finalUniqueResult);
-        return ResponseEntity.ok(finalUniqueResult);
+        return ResponseEntity.ok(page(finalUniqueResult, offset, limit));
+    }
+
+    /**
+     * GET the best books for some keywords with their BM25 score, only these books being fully scored
+     * @param content the keywords
+     * @param k the number of books, 10 by default
+     * @param anyWord boolean, books containing any keyword are found instead of books containing all of them, by default is not
+     * @return ResponseEntity<List<ScoredBook>> the books with their score, best first
+     */
+    @GetMapping(value = "/books/top", params = "search")
+    public ResponseEntity<List<ScoredBook>> topBooksByWord(@NotBlank @NotNull @RequestParam(name = "search", required = true) String content,
+                                                           @Min(1) @RequestParam(name = "k", required = false, defaultValue = "10") int k,
+                                                           @RequestParam(name = "anyWord", required = false, defaultValue = "false") boolean anyWord){
+        log.info("GET /books/top?search=" + content + "&k=" + k + (anyWord ? "&anyWord=true" : ""));
+        return ResponseEntity.ok(searchBookService.getScoredBooksByWords(content.split("\\s+"), anyWord, k));
     }
 
     /**
      * GET books by searching keyword or regex in its titles
      * @param content the keyword or regex string
-     * @param closeness boolean, ordered by closeness centrality or not, by default is not (ordered by relevance score to keyword)
+     * @param closeness boolean, ordered by centrality (`ranking.centrality`) or not, by default is not (ordered by relevance score to keyword)
      * @return ResponseEntity<List<Book>>
      */
     @GetMapping(value = "/books", params = "searchByTitle")
@@ -114,7 +167,7 @@ public class SearchBookController {
     /**
      * GET books by searching keyword or regex in its authors' names
      * @param content the keyword string or regex
-     * @param closeness boolean, ordered by closeness centrality or not, by default is not (ordered by relevance score to keyword)
+     * @param closeness boolean, ordered by centrality (`ranking.centrality`) or not, by default is not (ordered by relevance score to keyword)
      * @return ResponseEntity<List<Book>>
      */
     @GetMapping(value = "/books", params = "searchByAuthor")
@@ -141,19 +194,42 @@ public class SearchBookController {
     /**
      * GET a similar book to the book representing by it's id
      * @param bookId id of book to search it's similar book as suggestion
-     * @return ResponseEntity<Book> a similar book
+     * @return ResponseEntity<Book> a similar book, or a 404 error if the book is not found or no book is similar to it
      */
     @GetMapping(value = "/books", params = "suggestion")
     public ResponseEntity<Book> booksByJaccardDistance(@NotEmpty @RequestParam(name = "suggestion") Integer bookId){
         log.info("GET /books?suggestion=" + bookId);
-        return ResponseEntity.ok(searchBookService.getNeighborBookByJaccard(bookId));
+        Book book = searchBookService.getNeighborBookByJaccard(bookId);
+        if (book != null)
+            return ResponseEntity.ok(book);
+        else
+            return ResponseEntity.notFound().build();
+    }
+
+    /**
+     * a regex too long or too complex to be compiled is a bad request, the search of every field compiling its content as a regex
+     * @param e the rejection of the regex
+     * @return ResponseEntity<String> a 400 error with the reason of the rejection
+     */
+    @ExceptionHandler(RegExTooComplexException.class)
+    public ResponseEntity<String> regExTooComplex(RegExTooComplexException e){
+        log.info("Rejected regex: " + e.getMessage());
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    private static <T> List<T> page(List<T> list, int offset, Integer limit) {
+        // bounds are clamped, @Min not being enforced without a validation provider
+        int from = Math.max(0, Math.min(offset, list.size()));
+        int to = limit == null ? list.size() : (int) Math.max(from, Math.min(list.size(), (long) from + limit));
+        return list.subList(from, to);
     }
 
     private List<Book> retainIntersection(List<List<Book>> results) {
         Optional<List<Book>> resultKeywords = results.parallelStream()
                 .filter(bookList -> bookList != null && bookList.size() != 0)
                 .reduce((a, b) -> {
-                    a.retainAll(b);
+                    // a hash set makes the intersection linear instead of scanning `b` for every book of `a`
+                    a.retainAll(new HashSet<>(b));
                     return a;
                 });
 
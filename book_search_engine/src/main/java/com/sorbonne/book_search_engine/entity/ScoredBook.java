@@ -0,0 +1,14 @@
+package com.sorbonne.book_search_engine.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A book found by a search with its score for the query.
+ */
+@Data
+@AllArgsConstructor
+public class ScoredBook {
+    private Book book;
+    private double score;
+}
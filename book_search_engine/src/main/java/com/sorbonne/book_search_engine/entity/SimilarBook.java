@@ -0,0 +1,14 @@
+package com.sorbonne.book_search_engine.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A book similar to another one with its Jaccard distance to it, from 0 for the same keywords to 1 for none in common.
+ */
+@Data
+@AllArgsConstructor
+public class SimilarBook {
+    private Book book;
+    private double distance;
+}
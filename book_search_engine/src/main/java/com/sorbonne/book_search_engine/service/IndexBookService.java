@@ -0,0 +1,179 @@
+package com.sorbonne.book_search_engine.service;
+
+import com.sorbonne.book_search_engine.algorithms.graph.MinHashIndex;
+import com.sorbonne.book_search_engine.algorithms.keyword.config.KeywordDictionary;
+import com.sorbonne.book_search_engine.algorithms.keyword.config.KeywordDictionaryBuilder;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.FieldWordIndex;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.Postings;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.SegmentedKeywordIndex;
+import com.sorbonne.book_search_engine.config.IndexTableConfig;
+import com.sorbonne.book_search_engine.config.LibraryLog;
+import com.sorbonne.book_search_engine.entity.Book;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Adds, updates or removes one book of the library without rebuilding the whole keyword index:
+ * the keywords of the book are written into a delta segment and segments are merged in the background.
+ * The words of its title and authors are added to or removed from their indexes, and the change is appended to
+ * the library log, which is compacted into books.ser with the merge of the segments.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class IndexBookService {
+    private final Map<Integer, Book> library;
+    private final SegmentedKeywordIndex keywordIndex;
+    private final MinHashIndex minHashIndex;
+    private final FieldWordIndex titleIndex;
+    private final FieldWordIndex authorIndex;
+    private final LibraryLog libraryLog;
+    private final IndexTableConfig indexTableConfig;
+    private final RankingService rankingService;
+    private final RegExCacheService regExCacheService;
+    private final FetchBookService fetchBookService;
+    private final RestTemplate restTemplate;
+    private final HttpEntity<String> httpHeaders;
+
+    @Autowired
+    @Qualifier("indexMergeExecutor")
+    private Executor indexMergeExecutor;
+
+    @Value("${index.merge.max-deltas:10}")
+    private int maxDeltas;
+
+    @Value("${index.positions:true}")
+    private boolean positions;
+
+    // changes of the library and of the title and author indexes are logged in the order they are made
+    private final Object libraryLock = new Object();
+
+    /**
+     * index a book, downloading it from the Gutenberg project if its text is not in /books yet.
+     * a book already in the library is indexed again from its text
+     * @param id the id of the book
+     * @return the indexed book, or null if the book cannot be downloaded
+     */
+    public Book addBook(int id) throws IOException {
+        Book book = library.get(id);
+        if (book == null || !new File("books/" + id + ".txt").exists()) {
+            book = downloadBook(id, book);
+            if (book == null)
+                return null;
+        }
+
+        KeywordDictionary dictionary = new KeywordDictionaryBuilder(positions).build(Collections.singletonList(book));
+        if (dictionary.getKeywordBookTable().isEmpty()) {
+            keywordIndex.delete(id);
+            minHashIndex.remove(id);
+        } else {
+            keywordIndex.addSegment(dictionary);
+            List<String> stems = new ArrayList<>();
+            Postings table = keywordIndex.getSnapshot().bookTermTables(Collections.singletonList(id), stems).get(id);
+            minHashIndex.insert(id, table, stems);
+        }
+        synchronized (libraryLock) {
+            Book previous = library.get(id);
+            if (previous != null) {
+                titleIndex.remove(id, IndexTableConfig.titleWords(previous));
+                authorIndex.remove(id, IndexTableConfig.authorWords(previous));
+            }
+            titleIndex.add(id, IndexTableConfig.titleWords(book));
+            authorIndex.add(id, IndexTableConfig.authorWords(book));
+            library.put(id, book);
+            libraryLog.put(book);
+        }
+        log.info("Indexed book " + id + ", " + keywordIndex.getNumberOfDeltas() + " delta segments");
+        regExCacheService.invalidateWords();
+        rankingService.refresh();
+
+        if (keywordIndex.getNumberOfDeltas() >= maxDeltas)
+            mergeSegments();
+        return book;
+    }
+
+    /**
+     * remove a book from the library and from the keyword index
+     * @param id the id of the book
+     * @return the removed book, or null if the book is not in the library
+     */
+    public Book removeBook(int id) throws IOException {
+        Book book;
+        synchronized (libraryLock) {
+            book = library.remove(id);
+            if (book == null)
+                return null;
+            titleIndex.remove(id, IndexTableConfig.titleWords(book));
+            authorIndex.remove(id, IndexTableConfig.authorWords(book));
+            libraryLog.remove(id);
+        }
+        keywordIndex.delete(id);
+        minHashIndex.remove(id);
+        log.info("Removed book " + id);
+        regExCacheService.invalidateWords();
+        rankingService.refresh();
+        return book;
+    }
+
+    /**
+     * merge the segments of the keyword index on the merge executor, and compact the library log
+     */
+    public void mergeSegments() {
+        indexMergeExecutor.execute(() -> {
+            try {
+                keywordIndex.merge();
+                regExCacheService.invalidateWords();
+                compactLibrary();
+            } catch (IOException e) {
+                log.error("Merge of keyword segments failed", e);
+            }
+        });
+    }
+
+    /**
+     * write the library and the title and author indexes with every change of the library log, and empty the log
+     */
+    private void compactLibrary() throws IOException {
+        synchronized (libraryLock) {
+            if (!libraryLog.hasChanges())
+                return;
+            // written before the log is emptied: until then, they are built again from the library at start
+            indexTableConfig.saveFieldIndexes(titleIndex, authorIndex);
+            libraryLog.compact(library);
+        }
+        log.info("Compacted the library log into books.ser");
+    }
+
+    private Book downloadBook(int id, Book book) {
+        try {
+            if (book == null)
+                book = restTemplate.exchange("http://gutendex.com/books/" + id, HttpMethod.GET, httpHeaders, Book.class).getBody();
+            if (book == null)
+                return null;
+            Map.Entry<Integer, Book> entry = fetchBookService.getBook(book).get();
+            return entry == null ? null : entry.getValue();
+        } catch (RestClientException | ExecutionException e) {
+            log.info("Cannot download book " + id + ": " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.sorbonne.book_search_engine.service;
+
+import com.sorbonne.book_search_engine.algorithms.graph.BookRanks;
+import com.sorbonne.book_search_engine.algorithms.graph.JaccardDistances;
+import com.sorbonne.book_search_engine.algorithms.graph.NearestNeighborGraph;
+import com.sorbonne.book_search_engine.config.GraphRankingConfig;
+import com.sorbonne.book_search_engine.config.LibraryLog;
+import com.sorbonne.book_search_engine.entity.Book;
+import javafx.util.Pair;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Serves the last published ranking of the library: the centrality ranking, the library ordered by it and
+ * the graph of the nearest books. Rankings are computed on the low priority ranking executor, when they are
+ * not found on disk at start and whenever the library changes, then published at once by swapping the snapshot,
+ * so that requests never wait for a computation: they keep reading the previous snapshot until then.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class RankingService {
+    private static final int PREVIEW_SIZE = 100;
+
+    private final Map<Integer, Book> library;
+    private final GraphRankingConfig graphRankingConfig;
+    private final LibraryLog libraryLog;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    // computation scheduled and not started yet, null if none
+    private final AtomicReference<CompletableFuture<Snapshot>> scheduled = new AtomicReference<>();
+
+    @Autowired
+    @Qualifier("rankingExecutor")
+    private Executor rankingExecutor;
+
+    /**
+     * publish the rankings of the last run if they are on disk, or else the library in the order of ids until
+     * the rankings are computed. the rankings on disk are computed again if the library log holds changes,
+     * which they may not include, and are served until then
+     */
+    @PostConstruct
+    public void init() throws IOException, ClassNotFoundException {
+        Map<Integer, Double> ranking = graphRankingConfig.loadCentralityRanking();
+        NearestNeighborGraph nearestNeighbors = graphRankingConfig.loadNearestNeighborGraph();
+        if (ranking != null && nearestNeighbors != null) {
+            publish(ranking, nearestNeighbors);
+            if (libraryLog.hasChanges()) {
+                log.info("The library changed since books.ser was written, computing the rankings again...");
+                refresh();
+            }
+            return;
+        }
+        publish(new LinkedHashMap<>(), new NearestNeighborGraph(0, new int[0], new int[1], new int[0], new float[0]));
+        refresh();
+    }
+
+    /**
+     * @return the last published ranking
+     */
+    public Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * compute the rankings again in the background, after the running computation if any;
+     * several calls before the computation starts lead to a single computation
+     * @return the snapshot published by the computation, completed exceptionally if it fails
+     */
+    public CompletableFuture<Snapshot> refresh() {
+        while (true) {
+            CompletableFuture<Snapshot> pending = scheduled.get();
+            if (pending != null)
+                return pending;
+            CompletableFuture<Snapshot> computation = new CompletableFuture<>();
+            if (scheduled.compareAndSet(null, computation)) {
+                rankingExecutor.execute(() -> recompute(computation));
+                return computation;
+            }
+        }
+    }
+
+    private void recompute(CompletableFuture<Snapshot> computation) {
+        // changes from now on need another computation
+        scheduled.compareAndSet(computation, null);
+        try {
+            long start = System.currentTimeMillis();
+            JaccardDistances jaccardDistances = graphRankingConfig.computeJaccardDistances();
+            Map<Integer, Double> ranking = graphRankingConfig.computeCentralityRanking(jaccardDistances);
+            NearestNeighborGraph nearestNeighbors = graphRankingConfig.computeNearestNeighborGraph(jaccardDistances);
+            publish(ranking, nearestNeighbors);
+            log.info("Published ranking of " + ranking.size() + " books computed in " + (System.currentTimeMillis() - start) + " ms");
+            computation.complete(snapshot.get());
+        } catch (IOException | RuntimeException e) {
+            log.error("Computation of the ranking failed, keeping the previous one", e);
+            computation.completeExceptionally(e);
+        }
+    }
+
+    private void publish(Map<Integer, Double> ranking, NearestNeighborGraph nearestNeighbors) {
+        List<Book> books = new ArrayList<>();
+        List<Pair<Integer, String>> top100BooksPreview = new ArrayList<>();
+        Collection<Integer> orderedIds = ranking.isEmpty() ? new TreeSet<>(library.keySet()) : ranking.keySet();
+        for (Integer id: orderedIds) {
+            // the ranking may still hold books removed from the library since it was computed
+            Book book = library.get(id);
+            if (book == null)
+                continue;
+            books.add(book);
+            if (top100BooksPreview.size() < PREVIEW_SIZE)
+                top100BooksPreview.add(new Pair<>(id, book.getTitle()));
+        }
+        snapshot.set(new Snapshot(Collections.unmodifiableMap(ranking), BookRanks.of(ranking.keySet()),
+                Collections.unmodifiableList(books), Collections.unmodifiableList(top100BooksPreview), nearestNeighbors));
+    }
+
+    /**
+     * An immutable ranking of the library.
+     */
+    public static final class Snapshot {
+        private final Map<Integer, Double> ranking;
+        private final BookRanks ranks;
+        private final List<Book> books;
+        private final List<Pair<Integer, String>> top100BooksPreview;
+        private final NearestNeighborGraph nearestNeighbors;
+
+        private Snapshot(Map<Integer, Double> ranking, BookRanks ranks, List<Book> books,
+                         List<Pair<Integer, String>> top100BooksPreview, NearestNeighborGraph nearestNeighbors) {
+            this.ranking = ranking;
+            this.ranks = ranks;
+            this.books = books;
+            this.top100BooksPreview = top100BooksPreview;
+            this.nearestNeighbors = nearestNeighbors;
+        }
+
+        /**
+         * @return the centrality chosen by `ranking.centrality` of every book, in descending order,
+         * empty until the first ranking is computed
+         */
+        public Map<Integer, Double> getRanking() {
+            return ranking;
+        }
+
+        /**
+         * @return the rank of every book in the centrality ranking
+         */
+        public BookRanks getRanks() {
+            return ranks;
+        }
+
+        /**
+         * @return the books of the library in the order of the ranking, or of their ids until the first ranking
+         * is computed
+         */
+        public List<Book> getBooks() {
+            return books;
+        }
+
+        /**
+         * @return the ids and titles of the first 100 books
+         */
+        public List<Pair<Integer, String>> getTop100BooksPreview() {
+            return top100BooksPreview;
+        }
+
+        /**
+         * @return the graph of the k nearest books of every book
+         */
+        public NearestNeighborGraph getNearestNeighbors() {
+            return nearestNeighbors;
+        }
+    }
+}
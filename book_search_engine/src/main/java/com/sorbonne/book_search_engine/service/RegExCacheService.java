@@ -0,0 +1,136 @@
+package com.sorbonne.book_search_engine.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.sorbonne.book_search_engine.algorithms.regex.CompilationContext;
+import com.sorbonne.book_search_engine.algorithms.regex.CompiledDFA;
+import com.sorbonne.book_search_engine.algorithms.regex.NFA;
+import com.sorbonne.book_search_engine.algorithms.regex.RegExTooComplexException;
+import com.sorbonne.book_search_engine.algorithms.regex.RegExTree;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static com.sorbonne.book_search_engine.algorithms.regex.RegEx.parse;
+
+/**
+ * Caches of regex searches, bounded in number of entries and evicting the least recently used ones:
+ * the compiled DFA of every regex, and the words of a field of the library matched by a regex.
+ * Words are cached for a generation of the index: a change of the index starts a new generation, so that
+ * words computed on an index older than the change, even while it is made, are never read again.
+ * Regexes longer than `search.regex.max-length`, or whose automata have more than `search.regex.max-states` states,
+ * are rejected with a {@link RegExTooComplexException}, any user being able to send a regex.
+ */
+@Service
+@Slf4j
+public class RegExCacheService {
+    public enum Field { CONTENT, TITLE, AUTHOR }
+
+    private final Cache<String, Optional<CompiledDFA>> automata;
+    private final Cache<WordsKey, Set<String>> words;
+    private final AtomicLong generation = new AtomicLong();
+    private final int maxLength;
+    private final int maxStates;
+
+    public RegExCacheService(@Value("${search.regex.cache.automata:256}") int automataSize,
+                             @Value("${search.regex.cache.words:1024}") int wordsSize,
+                             @Value("${search.regex.max-length:256}") int maxLength,
+                             @Value("${search.regex.max-states:1000}") int maxStates) {
+        this.maxLength = maxLength;
+        this.maxStates = maxStates;
+        automata = CacheBuilder.newBuilder().maximumSize(automataSize).recordStats().build();
+        words = CacheBuilder.newBuilder().maximumSize(wordsSize).recordStats().build();
+    }
+
+    /**
+     * @param field the field of the library searched
+     * @param regEx a regex, in lower case
+     * @param wordsMatchedBy search of the words of the field matched by a compiled DFA, run only if the words
+     * matched by the regex are not cached
+     * @return the words of the field matched by the regex, empty if the regex cannot be parsed
+     * @throws RegExTooComplexException if the regex is too long or its automaton too large
+     */
+    public Set<String> getWords(Field field, String regEx, Function<CompiledDFA, Collection<String>> wordsMatchedBy) {
+        try {
+            return words.get(new WordsKey(field, regEx, generation.get()), () -> {
+                Optional<CompiledDFA> dfa = getAutomaton(regEx);
+                if (!dfa.isPresent())
+                    return Collections.emptySet();
+                return Collections.unmodifiableSet(new HashSet<>(wordsMatchedBy.apply(dfa.get())));
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RegExTooComplexException)
+                throw (RegExTooComplexException) e.getCause();
+            throw new IllegalStateException("search of the words matched by " + regEx + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * @param regEx a regex, in lower case
+     * @return the compiled DFA of the regex, empty if the regex cannot be parsed
+     * @throws RegExTooComplexException if the regex is too long or its automaton too large
+     */
+    public Optional<CompiledDFA> getAutomaton(String regEx) {
+        if (regEx.length() > maxLength)
+            throw new RegExTooComplexException("the regex has more than " + maxLength + " characters");
+        try {
+            return automata.get(regEx, () -> {
+                RegExTree ret = parse(regEx);
+                if (ret == null) {
+                    log.info("Error parsing RegEx: " + regEx);
+                    return Optional.empty();
+                }
+                CompilationContext context = new CompilationContext();
+                return Optional.of(CompiledDFA.compile(NFA.fromRegExTreeToNFA(ret, context), context, maxStates));
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RegExTooComplexException)
+                throw (RegExTooComplexException) e.getCause();
+            throw new IllegalStateException("compilation of " + regEx + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * forget the words matched by regexes, after a change of the index
+     */
+    public void invalidateWords() {
+        generation.incrementAndGet();
+        words.invalidateAll();
+    }
+
+    /**
+     * @return the number of entries, hits, misses and evictions of the caches of automata and words
+     */
+    public Map<String, Map<String, Number>> getStats() {
+        Map<String, Map<String, Number>> stats = new LinkedHashMap<>();
+        stats.put("automata", stats(automata));
+        stats.put("words", stats(words));
+        return stats;
+    }
+
+    private static Map<String, Number> stats(Cache<?, ?> cache) {
+        CacheStats cacheStats = cache.stats();
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("size", cache.size());
+        stats.put("hitCount", cacheStats.hitCount());
+        stats.put("missCount", cacheStats.missCount());
+        stats.put("hitRate", cacheStats.hitRate());
+        stats.put("evictionCount", cacheStats.evictionCount());
+        return stats;
+    }
+
+    @Data
+    private static final class WordsKey {
+        private final Field field;
+        private final String regEx;
+        private final long generation;
+    }
+}
@@ -1,25 +1,34 @@
 package com.sorbonne.book_search_engine.service;
 
+import com.sorbonne.book_search_engine.algorithms.graph.BookRanks;
+import com.sorbonne.book_search_engine.algorithms.graph.JaccardDistances;
+import com.sorbonne.book_search_engine.algorithms.graph.MinHashIndex;
+import com.sorbonne.book_search_engine.algorithms.graph.NearestNeighborGraph;
 import com.sorbonne.book_search_engine.algorithms.keyword.Keyword;
-import com.sorbonne.book_search_engine.algorithms.keyword.config.KeywordDictionary;
-import com.sorbonne.book_search_engine.algorithms.regex.DFA;
-import com.sorbonne.book_search_engine.algorithms.regex.DFAState;
-import com.sorbonne.book_search_engine.algorithms.regex.NFA;
-import com.sorbonne.book_search_engine.algorithms.regex.RegExTree;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.Bm25Evaluator;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.FieldWordIndex;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.PhraseMatcher;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.Postings;
+import com.sorbonne.book_search_engine.algorithms.keyword.index.SegmentedKeywordIndex;
+import com.sorbonne.book_search_engine.algorithms.regex.CompiledDFA;
+import com.sorbonne.book_search_engine.algorithms.regex.RegExTooComplexException;
 import com.sorbonne.book_search_engine.entity.Book;
 import com.sorbonne.book_search_engine.entity.Result;
+import com.sorbonne.book_search_engine.entity.ScoredBook;
+import com.sorbonne.book_search_engine.entity.SimilarBook;
 import javafx.util.Pair;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.support.PagedListHolder;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import static com.sorbonne.book_search_engine.algorithms.regex.RegEx.parse;
-
 /**
  * Created by Sylvain in 2022/01.
  */
@@ -28,20 +37,31 @@ import static com.sorbonne.book_search_engine.algorithms.regex.RegEx.parse;
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
 public class SearchBookService {
     private final Map<Integer, Book> library;
-    private final PagedListHolder<Book> pagedLibrary;
-    private final KeywordDictionary keywordDictionary;
-    private final HashMap<String, HashSet<Integer>> titleDictionary;
-    private final HashMap<String, HashSet<Integer>> authorDictionary;
+    private final SegmentedKeywordIndex keywordIndex;
+    private final FieldWordIndex titleIndex;
+    private final FieldWordIndex authorIndex;
     //private final HashMap<Integer, HashMap<Integer, Double>> jaccardDistanceMap;
-    private final HashMap<Integer, Integer> jaccardMapNeighbor;
-    private final Map<Integer, Double> closenessCentrality;
+    private final MinHashIndex minHashIndex;
+    private final RankingService rankingService;
+    private final RegExCacheService regExCacheService;
+
+    @Value("${search.bm25.k1:1.2}")
+    private double k1;
+
+    @Value("${search.bm25.b:0.75}")
+    private double b;
+
+    @Value("${search.regex.automaton-walk:true}")
+    private boolean regExAutomatonWalk;
 
     /**
-     * return books on a specific page of pagedLibrary
+     * return books on a specific page of the library ordered by the last published ranking
      * @param page the page number
      * @return a list of books with some meta information in a Result Object
      */
     public Result getBooksOnPage(int page){
+        PagedListHolder<Book> pagedLibrary = new PagedListHolder<>(rankingService.getSnapshot().getBooks());
+        pagedLibrary.setPageSize(20);
         pagedLibrary.setPage(page);
         Result result = new Result();
         result.setTotalCount(pagedLibrary.getNrOfElements());
@@ -71,22 +91,127 @@ public class SearchBookService {
      * @return a list of books
      */
     public List<Book> getBooksByWord(String word){
-        String stem = keywordDictionary.getWord2Keyword().get(word.toLowerCase(Locale.ROOT));
-        if (stem == null)
-            return new ArrayList<>();
-        HashMap<Integer, Double> result = keywordDictionary.getKeywordInBooks().get(stem);
-        // sort the result by relevancy
-        result = result.entrySet().stream()
-                .sorted((e1, e2) -> - (e1.getValue().compareTo(e2.getValue())))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
+        return getBooksByWords(new String[]{word});
+    }
+
+    /**
+     * search books containing all the keywords given in parameter, keywords found in no book being ignored.
+     * books are ordered by their BM25 score for the keywords
+     * @param words the keywords to search in books
+     * @return a list of books
+     */
+    public List<Book> getBooksByWords(String[] words){
+        return getBooksByWords(words, false);
+    }
 
+    /**
+     * search books containing all or any of the keywords given in parameter, keywords found in no book being ignored.
+     * books are ordered by their BM25 score for the keywords
+     * @param words the keywords to search in books
+     * @param anyWord true to search books containing at least one keyword instead of all of them
+     * @return a list of books
+     */
+    public List<Book> getBooksByWords(String[] words, boolean anyWord){
+        return getBooksByWords(words, anyWord, Integer.MAX_VALUE);
+    }
+
+    /**
+     * search the k best books containing all or any of the keywords given in parameter, only these books being fully scored
+     * @param words the keywords to search in books
+     * @param anyWord true to search books containing at least one keyword instead of all of them
+     * @param k the number of books to return, Integer.MAX_VALUE for all of them
+     * @return a list of at most k books ordered by their BM25 score for the keywords
+     */
+    public List<Book> getBooksByWords(String[] words, boolean anyWord, int k){
+        return booksOf(rankBooksByWords(words, anyWord, k).idsByScore());
+    }
+
+    /**
+     * search the k best books containing all or any of the keywords given in parameter, with their score
+     * @param words the keywords to search in books
+     * @param anyWord true to search books containing at least one keyword instead of all of them
+     * @param k the number of books to return
+     * @return a list of at most k books with their BM25 score for the keywords, best first
+     */
+    public List<ScoredBook> getScoredBooksByWords(String[] words, boolean anyWord, int k){
+        Postings result = rankBooksByWords(words, anyWord, k);
+        List<ScoredBook> list = new ArrayList<>();
+        for (int index: result.indexesByScore()) {
+            Book book = getBookById(result.id(index));
+            if (book != null)
+                list.add(new ScoredBook(book, result.score(index)));
+        }
+        return list;
+    }
+
+    /**
+     * @return the k live books of best BM25 score for the keywords, each book with its score
+     */
+    private Postings rankBooksByWords(String[] words, boolean anyWord, int k){
+        SegmentedKeywordIndex.Snapshot snapshot = keywordIndex.getSnapshot();
+        LinkedHashSet<String> stems = new LinkedHashSet<>();
+        for (String word: words) {
+            String stem = snapshot.stemOf(word.toLowerCase(Locale.ROOT));
+            if (snapshot.contains(stem))
+                stems.add(stem);
+        }
+        if (stems.isEmpty())
+            return Postings.EMPTY;
+        // postings are sorted by book id, so that they are intersected or united by skipping blocks of postings of each stem,
+        // and books are kept on a heap of k books
+        Bm25Evaluator evaluator = new Bm25Evaluator(snapshot, k1, b);
+        String[] query = stems.toArray(new String[0]);
+        return anyWord ? evaluator.disjunctive(query, k) : evaluator.conjunctive(query, k);
+    }
+
+    private List<Book> booksOf(int[] ids){
         List<Book> list = new ArrayList<>();
-        for (Integer id: result.keySet()) {
+        for (int id: ids) {
             Book book = getBookById(id);
             list.add(book);
         }
         return list.stream().filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * search books containing a phrase, using the positions of keywords stored in the index.
+     * words of the phrase unknown to the index, such as stop words, match any word at their position
+     * @param phrase the phrase to search in books
+     * @param slop 0 for the exact phrase, or the number of extra words allowed between the words of the phrase,
+     *             which may then come in any order
+     * @return a list of books, ordered by the number of times the phrase is found
+     */
+    public List<Book> getBooksByPhrase(String phrase, int slop){
+        return getBooksByPhrase(phrase, slop, Integer.MAX_VALUE);
+    }
+
+    /**
+     * search the k books containing a phrase the most times
+     * @param phrase the phrase to search in books
+     * @param slop 0 for the exact phrase, or the number of extra words allowed between the words of the phrase
+     * @param k the number of books to return, Integer.MAX_VALUE for all of them
+     * @return a list of at most k books, ordered by the number of times the phrase is found
+     */
+    public List<Book> getBooksByPhrase(String phrase, int slop, int k){
+        SegmentedKeywordIndex.Snapshot snapshot = keywordIndex.getSnapshot();
+        List<String> stems = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        int position = 0;
+        for (String word: phrase.toLowerCase(Locale.ROOT).split("[^\\p{L}'’`]+")) {
+            if (word.isEmpty())
+                continue;
+            String stem = snapshot.stemOf(word);
+            if (stem != null) {
+                stems.add(stem);
+                offsets.add(position);
+            }
+            position++;
+        }
+        if (stems.isEmpty())
+            return new ArrayList<>();
 
+        PhraseMatcher matcher = new PhraseMatcher(stems.toArray(new String[0]), offsets.stream().mapToInt(Integer::intValue).toArray(), slop);
+        return booksOf(matcher.match(snapshot).top(k).idsByScore());
     }
 
     /**
@@ -95,7 +220,7 @@ public class SearchBookService {
      * @return a list of books
      */
     public List<Book> getBooksByTitle(String word){
-        HashSet<Integer> result = titleDictionary.getOrDefault(word.toLowerCase(Locale.ROOT), new HashSet<>());
+        Set<Integer> result = titleIndex.books(word.toLowerCase(Locale.ROOT));
         if (result.isEmpty())
             return new ArrayList<>();
         List<Book> list = new ArrayList<>();
@@ -112,7 +237,7 @@ public class SearchBookService {
      * @return a list of books
      */
     public List<Book> getBooksByAuthor(String word){
-        HashSet<Integer> result = authorDictionary.getOrDefault(word.toLowerCase(Locale.ROOT), new HashSet<>());
+        Set<Integer> result = authorIndex.books(word.toLowerCase(Locale.ROOT));
         if (result.isEmpty())
             return new ArrayList<>();
         List<Book> list = new ArrayList<>();
@@ -129,15 +254,22 @@ public class SearchBookService {
      * @return a list of books
      */
     public List<Book> getBooksByRegex(String regEx){
-        HashMap<String, String> word2Keywords = keywordDictionary.getWord2Keyword();
-        HashSet<String> candidats = new HashSet<>(word2Keywords.keySet());
-        HashSet<String> words = getWordsByRegEx(candidats, regEx.toLowerCase(Locale.ROOT));
-        List<List<Book>> listBooks = new ArrayList<>();
-        for (String word: words){
-            listBooks.add(getBooksByWord(word));
-        }
-        List<Book> result = unionAndRemoveDuplicates(listBooks);
-        return result.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        return getBooksByRegex(regEx, Integer.MAX_VALUE);
+    }
+
+    /**
+     * search the k best books containing text matching the regex given in parameter. the postings of the stems of all
+     * matched words are united in one BM25 pass, keeping k books, instead of ranking every book of each word on its own
+     * @param regEx the regex to match in books' contenu
+     * @param k the number of books to return, Integer.MAX_VALUE for all of them
+     * @return a list of at most k books ordered by their BM25 score for the matched words
+     */
+    public List<Book> getBooksByRegex(String regEx, int k){
+        Set<String> words = getWordsByRegEx(RegExCacheService.Field.CONTENT, regEx,
+                () -> keywordIndex.getSnapshot().words(), dfa -> keywordIndex.getSnapshot().wordsAcceptedBy(dfa));
+        if (words.isEmpty())
+            return new ArrayList<>();
+        return getBooksByWords(words.toArray(new String[0]), true, k);
     }
 
     /**
@@ -146,8 +278,8 @@ public class SearchBookService {
      * @return a list of books
      */
     public List<Book> getBooksByRegexInTitle(String regEx){
-        HashSet<String> candidats = new HashSet<>(titleDictionary.keySet());
-        HashSet<String> words = getWordsByRegEx(candidats, regEx.toLowerCase(Locale.ROOT));
+        Set<String> words = getWordsByRegEx(RegExCacheService.Field.TITLE, regEx,
+                titleIndex::words, dfa -> titleIndex.automaton().wordsAcceptedBy(dfa));
         List<List<Book>> listBooks = new ArrayList<>();
         for (String word: words){
             listBooks.add(getBooksByTitle(word));
@@ -162,8 +294,8 @@ public class SearchBookService {
      * @return a list of books
      */
     public List<Book> getBooksByRegexInAuthor(String regEx){
-        HashSet<String> candidats = new HashSet<>(authorDictionary.keySet());
-        HashSet<String> words = getWordsByRegEx(candidats, regEx.toLowerCase(Locale.ROOT));
+        Set<String> words = getWordsByRegEx(RegExCacheService.Field.AUTHOR, regEx,
+                authorIndex::words, dfa -> authorIndex.automaton().wordsAcceptedBy(dfa));
         List<List<Book>> listBooks = new ArrayList<>();
         for (String word: words){
             listBooks.add(getBooksByAuthor(word));
@@ -173,14 +305,21 @@ public class SearchBookService {
     }
 
     /**
-     * order a list of books by closeness centrality in descended order
-     * @param books the list of books to be ordered
-     * @return a list of books
+     * order a list of books by centrality in descended order, closeness centrality or PageRank as chosen by `ranking.centrality`
+     * @param books the list of books to be ordered, left as it is
+     * @return a new list of the books, ordered
      */
     public List<Book> orderBooksByCloseness(List<Book> books){
-        List<Integer> orderedIds = new ArrayList<>(closenessCentrality.keySet());
-        books.sort(Comparator.comparing(book -> orderedIds.indexOf(book.getId())));
-        return books;
+        // rank in the high bits and position in the low bits: a sort of primitives, stable, unranked books first
+        BookRanks centralityRanks = rankingService.getSnapshot().getRanks();
+        long[] keys = new long[books.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = ((long) centralityRanks.rank(books.get(i).getId()) << 32) | i;
+        Arrays.sort(keys);
+        List<Book> ordered = new ArrayList<>(keys.length);
+        for (long key : keys)
+            ordered.add(books.get((int) key));
+        return ordered;
     }
 
     /**
@@ -202,60 +341,80 @@ public class SearchBookService {
         return result.stream().filter(Objects::nonNull).collect(Collectors.toList());
     }*/
 
+    /**
+     * get the book at the smallest Jaccard distance of a book, among the candidates of the MinHash index
+     * ranked by their exact distance; the book of smallest id is taken among books at the same distance.
+     * candidates are found by their weighted Jaccard similarity over all stems, and ranked by the distance over
+     * common stems of the rest of the library, so the nearest book may be missed (see {@link MinHashIndex})
+     * @param id the book's id
+     * @return the most similar book, or null if the book is not indexed or no candidate shares a stem with it
+     */
     public Book getNeighborBookByJaccard(int id){
-        int id2 = jaccardMapNeighbor.get(id);
-        return getBookById(id2);
-    }
-
-    private HashSet<String> getWordsByRegEx(HashSet<String> words, String regEx){
-        RegExTree ret;
-        DFAState root;
-        Set<DFAState> acceptings;
-        if (regEx.length() < 1) {
-            System.err.println("  >> ERROR: empty regEx.");
-            return new HashSet<>();
-        } else {
-            try {
-                ret = parse(regEx);
-            } catch (Exception e) {
-                log.info("Error parsing RegEx: " + regEx);
-                e.printStackTrace();
-                return new HashSet<>();
+        Set<Integer> ids = minHashIndex.candidates(id);
+        ids.add(id);
+        HashMap<Integer, Postings> keywordBookTable = keywordIndex.getSnapshot().bookTermTables(ids, new ArrayList<>());
+        Postings table = keywordBookTable.remove(id);
+        if (table == null)
+            return null;
+        int neighbor = -1;
+        double best = 1.0;
+        for (Map.Entry<Integer, Postings> candidate: keywordBookTable.entrySet()){
+            double distance = JaccardDistances.jaccardDistanceBetweenTable(table, candidate.getValue());
+            if (distance < best || (distance == best && neighbor >= 0 && candidate.getKey() < neighbor)){
+                best = distance;
+                neighbor = candidate.getKey();
             }
         }
+        if (neighbor < 0)
+            // no candidate shares a stem with the book, none is similar to it
+            return null;
+        return getBookById(neighbor);
+    }
 
-        NFA nfa = NFA.fromRegExTreeToNFA(ret);
-        DFA dfa = DFA.fromNFAtoDFA(nfa);
-        root = dfa.getRoot();
-        acceptings = dfa.getAcceptings();
-
-        HashSet<String> result = new HashSet<>();
-        for (String word: words){
-            if (search(root, root, acceptings, word, 0)){
-                result.add(word);
-            }
+    /**
+     * get the most similar books of a book from the k-NN graph
+     * @param id the book's id
+     * @param k the number of books, at most the number of neighbours kept in the graph
+     * @return at most k books with their Jaccard distance, nearest first
+     */
+    public List<SimilarBook> getSimilarBooks(int id, int k){
+        List<SimilarBook> result = new ArrayList<>();
+        NearestNeighborGraph nearestNeighborGraph = rankingService.getSnapshot().getNearestNeighbors();
+        int book = nearestNeighborGraph.ordinal(id);
+        if (book < 0)
+            return result;
+        for (int entry = nearestNeighborGraph.neighborsStart(book); entry < nearestNeighborGraph.neighborsEnd(book) && result.size() < k; entry++){
+            // the graph may still hold books removed from the library since it was computed
+            Book neighbor = getBookById(nearestNeighborGraph.neighbor(entry));
+            if (neighbor != null)
+                result.add(new SimilarBook(neighbor, nearestNeighborGraph.distance(entry)));
         }
         return result;
     }
 
-    private boolean search(DFAState root, DFAState state, Set<DFAState> acceptings, String line, int position) {
-        if (acceptings.contains(state))
-            return true;
-
-        if (position >= line.length())
-            return false;
-
-        int input = line.charAt(position);
-
-        DFAState next = state.getTransition(input);
-
-        if (next == null)
-            return search(root, root, acceptings, line, position + 1);
-
-        if (!search(root, next, acceptings, line, position + 1))
-            return search(root, root, acceptings, line, position + 1);
-
-        return true;
+    /**
+     * @param vocabulary the words of the field, each one matched against the DFA of the regex
+     * @param wordsAcceptedBy the walk of a DFA along the automaton of the words of the field, used instead of
+     * `vocabulary` unless `search.regex.automaton-walk` is false
+     * @throws RegExTooComplexException if the regex is longer than `search.regex.max-length`, or its automaton has more
+     * than `search.regex.max-states` states
+     */
+    private Set<String> getWordsByRegEx(RegExCacheService.Field field, String regEx, Supplier<Iterable<String>> vocabulary,
+                                        Function<CompiledDFA, Collection<String>> wordsAcceptedBy){
+        if (regEx.length() < 1) {
+            System.err.println("  >> ERROR: empty regEx.");
+            return new HashSet<>();
+        }
+        return regExCacheService.getWords(field, regEx.toLowerCase(Locale.ROOT), dfa -> {
+            if (regExAutomatonWalk)
+                return wordsAcceptedBy.apply(dfa);
+            List<String> words = new ArrayList<>();
+            for (String word: vocabulary.get()){
+                if (dfa.matches(word))
+                    words.add(word);
+            }
+            return words;
+        });
     }
 
     private List<Book> unionAndRemoveDuplicates(List<List<Book>> lists){
@@ -1,10 +1,12 @@
 package com.sorbonne.book_search_engine;
 
+import com.sorbonne.book_search_engine.algorithms.graph.BookRanks;
 import com.sorbonne.book_search_engine.algorithms.keyword.Keyword;
 import com.sorbonne.book_search_engine.algorithms.keyword.KeywordsExtractor;
 import com.sorbonne.book_search_engine.algorithms.keyword.StemmerLanguage;
 import com.sorbonne.book_search_engine.config.IndexTableConfig;
 import com.sorbonne.book_search_engine.entity.Book;
+import com.sorbonne.book_search_engine.service.RankingService;
 import com.sorbonne.book_search_engine.service.SearchBookService;
 import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.Test;
@@ -18,15 +20,18 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
 class BookSearchEngineApplicationTests {
     private final SearchBookService searchBookService;
-    private final Map<Integer, Double> closenessCentrality;
+    private final RankingService rankingService;
 
     @Test
     void contextLoads() {
@@ -63,17 +68,29 @@ class BookSearchEngineApplicationTests {
     }
 
     @Test
-    void testClosenessCentralityOrder(){
-        List<Book> page1Books = searchBookService.orderBooksByCloseness(searchBookService.getBooksOnPage(1).getResult());
+    void testClosenessCentralityOrder() throws Exception {
+        BookRanks ranks = rankingService.refresh().get(10, TimeUnit.MINUTES).getRanks();
+        List<Book> page1 = searchBookService.getBooksOnPage(1).getResult();
+        List<Book> page1Books = searchBookService.orderBooksByCloseness(page1);
         System.out.println("order books on page1 by closeness centrality = " + page1Books);
+        assertEquals(page1.size(), page1Books.size());
+        for (int i = 1; i < page1Books.size(); i++)
+            assertTrue(ranks.rank(page1Books.get(i - 1).getId()) <= ranks.rank(page1Books.get(i).getId()));
     }
 
     @Test
-    void testClosenessCentralityValue(){
-        List<Map.Entry<Integer, Double>> res = closenessCentrality.entrySet().stream()
+    void testClosenessCentralityValue() throws Exception {
+        Map<Integer, Double> ranking = rankingService.refresh().get(10, TimeUnit.MINUTES).getRanking();
+        List<Map.Entry<Integer, Double>> res = ranking.entrySet().stream()
                 .limit(200)
                 .collect(Collectors.toList());
         System.out.println("res = " + res);
+        assertFalse(ranking.isEmpty());
+        double previous = Double.POSITIVE_INFINITY;
+        for (double value : ranking.values()) {
+            assertTrue(value <= previous);
+            previous = value;
+        }
     }
 
 }
@@ -0,0 +1,104 @@
+package com.sorbonne.book_search_engine.algorithms.graph;
+
+import com.sorbonne.book_search_engine.algorithms.keyword.index.Postings;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jaccard distance of every pair of a set of books: term tables as HashMap<String, Double> probed by stem,
+ * as the distances were first computed, against sorted vectors of stem ordinals merged by
+ * {@link JaccardDistances#jaccardDistanceBetweenTable(Postings, Postings)}.
+ * Stems of a book are drawn with a probability decreasing with their rank, as the words of a text, so books share
+ * their frequent stems and few of their rare ones.
+ *
+ * Run with the test classpath, e.g. from the IDE, or:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.sorbonne.book_search_engine.algorithms.graph.JaccardDistanceBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JaccardDistanceBenchmark {
+    private static final int NUMBER_OF_BOOKS = 16;
+
+    @Param({"300", "1500"})
+    private int stemsScale;
+
+    private HashMap<String, Double>[] hashMapTables;
+    private Postings[] sortedTables;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        Random random = new Random(42);
+        int vocabulary = 100 * stemsScale;
+        hashMapTables = new HashMap[NUMBER_OF_BOOKS];
+        sortedTables = new Postings[NUMBER_OF_BOOKS];
+        for (int book = 0; book < NUMBER_OF_BOOKS; book++) {
+            hashMapTables[book] = new HashMap<>();
+            Postings.Builder builder = new Postings.Builder();
+            for (int stem = 0; stem < vocabulary; stem++) {
+                if (random.nextDouble() < (double) stemsScale / (stem + stemsScale)) {
+                    float relevance = random.nextFloat();
+                    hashMapTables[book].put("stem" + stem, (double) relevance);
+                    builder.add(stem, relevance);
+                }
+            }
+            sortedTables[book] = builder.build();
+        }
+    }
+
+    @Benchmark
+    public double hashMapTables() {
+        double sum = 0;
+        for (int book1 = 0; book1 < NUMBER_OF_BOOKS; book1++) {
+            for (int book2 = book1 + 1; book2 < NUMBER_OF_BOOKS; book2++)
+                sum += jaccardDistanceBetweenTable(hashMapTables[book1], hashMapTables[book2]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double sortedVectors() {
+        double sum = 0;
+        for (int book1 = 0; book1 < NUMBER_OF_BOOKS; book1++) {
+            for (int book2 = book1 + 1; book2 < NUMBER_OF_BOOKS; book2++)
+                sum += JaccardDistances.jaccardDistanceBetweenTable(sortedTables[book1], sortedTables[book2]);
+        }
+        return sum;
+    }
+
+    /**
+     * the distance as first computed: every stem of the bigger table is looked up in the smaller one
+     */
+    private static double jaccardDistanceBetweenTable(HashMap<String, Double> table1, HashMap<String, Double> table2) {
+        double dividend = 0;
+        double divisor = 0;
+        HashMap<String, Double> tableSmaller = table1.size() > table2.size() ? table2 : table1;
+        HashMap<String, Double> tableBigger = table1.size() > table2.size() ? table1 : table2;
+        for (Map.Entry<String, Double> entry : tableBigger.entrySet()) {
+            Double relevance1 = entry.getValue();
+            Double relevance2 = tableSmaller.get(entry.getKey());
+            if (relevance2 != null) {
+                dividend += Math.max(relevance1, relevance2) - Math.min(relevance1, relevance2);
+                divisor += Math.max(relevance1, relevance2);
+            }
+        }
+        if (divisor == 0)
+            return 1.0;
+        return dividend / divisor;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JaccardDistanceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
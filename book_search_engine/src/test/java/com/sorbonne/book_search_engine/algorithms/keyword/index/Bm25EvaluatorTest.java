@@ -0,0 +1,146 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Top-k of BM25 with block-max pruning (AND) and WAND (OR) compared with the scores of every live book,
+ * on random books spanning several blocks of postings, some of them replaced or removed in a delta segment.
+ */
+class Bm25EvaluatorTest {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final double EPSILON = 1e-4;
+    private static final String[][] QUERIES = {
+            {"w0"}, {"w25"}, {"w0", "w1"}, {"w1", "w7"}, {"w3", "w20"}, {"w0", "w2", "w5"}, {"w10", "w11", "w30"},
+            {"w0", "unknown"}, {"w2", "w2"}
+    };
+    private static final int[] KS = {1, 3, 10, 100, 1000};
+
+    @TempDir
+    Path directory;
+    private SegmentedKeywordIndex index;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Random random = new Random(42);
+        Map<Integer, String> texts = new LinkedHashMap<>();
+        for (int id = 1; id <= 600; id++)
+            texts.put(id, randomText(random));
+        index = TestIndexes.open(directory, texts);
+        Map<Integer, String> delta = new LinkedHashMap<>();
+        for (int id = 5; id <= 600; id += 12)
+            delta.put(id, randomText(random));
+        for (int id = 601; id <= 640; id++)
+            delta.put(id, randomText(random));
+        index.addSegment(TestIndexes.dictionary(delta));
+        for (int id = 3; id <= 640; id += 17)
+            index.delete(id);
+    }
+
+    /**
+     * @return a text of 5 to 80 words among 40, the words of small number being the most frequent
+     */
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int length = 5 + random.nextInt(76);
+        for (int i = 0; i < length; i++)
+            text.append('w').append((int) (40 * Math.pow(random.nextDouble(), 2))).append(' ');
+        return text.toString();
+    }
+
+    /**
+     * score every live book holding all the stems, or any of them, without skipping any posting
+     */
+    private static Map<Integer, Double> exhaustive(SegmentedKeywordIndex.Snapshot snapshot, Bm25Evaluator evaluator,
+                                                   String[] stems, boolean conjunctive) {
+        Map<Integer, Double> scores = new HashMap<>();
+        for (int s = 0; s < snapshot.getNumberOfSegments(); s++) {
+            KeywordIndex segment = snapshot.getSegment(s);
+            Map<Integer, Double> segmentScores = new HashMap<>();
+            Map<Integer, Integer> matched = new HashMap<>();
+            for (String stem : stems) {
+                int term = segment.termOrdinal(stem);
+                if (term < 0)
+                    continue;
+                Postings postings = segment.postings(term);
+                for (int i = 0; i < postings.size(); i++) {
+                    int bookId = postings.id(i);
+                    int length = segment.bookLength(segment.bookOrdinal(bookId));
+                    double weight = evaluator.weight(segment.postingFrequency(segment.postingsStart(term) + i, length), length);
+                    segmentScores.merge(bookId, evaluator.idf(stem) * weight, Double::sum);
+                    matched.merge(bookId, 1, Integer::sum);
+                }
+            }
+            for (Map.Entry<Integer, Double> score : segmentScores.entrySet()) {
+                int bookId = score.getKey();
+                if (snapshot.isLive(s, bookId) && (!conjunctive || matched.get(bookId) == stems.length))
+                    scores.put(bookId, score.getValue());
+            }
+        }
+        return scores;
+    }
+
+    private static void assertTopK(Map<Integer, Double> expected, Postings top, int k, String query) {
+        List<Double> sorted = new ArrayList<>(expected.values());
+        sorted.sort(Comparator.reverseOrder());
+        int size = Math.min(k, sorted.size());
+        assertEquals(size, top.size(), query);
+        for (int i = 1; i < top.size(); i++)
+            assertTrue(top.id(i - 1) < top.id(i), query);
+        for (int i = 0; i < top.size(); i++) {
+            Double score = expected.get(top.id(i));
+            assertNotNull(score, query + ": book " + top.id(i) + " is not a live match");
+            assertEquals(score, top.score(i), EPSILON, query);
+            // any book of the k best scores may be kept at a tie with the k-th
+            assertTrue(score >= sorted.get(size - 1) - EPSILON, query + ": book " + top.id(i) + " is not in the top " + k);
+        }
+    }
+
+    @Test
+    void testConjunctiveMatchesExhaustiveScoring() {
+        SegmentedKeywordIndex.Snapshot snapshot = index.getSnapshot();
+        Bm25Evaluator evaluator = new Bm25Evaluator(snapshot, K1, B);
+        for (String[] query : QUERIES) {
+            Map<Integer, Double> expected = exhaustive(snapshot, evaluator, query, true);
+            for (int k : KS)
+                assertTopK(expected, evaluator.conjunctive(query, k), k, "AND " + Arrays.toString(query) + " k=" + k);
+        }
+    }
+
+    @Test
+    void testDisjunctiveMatchesExhaustiveScoring() {
+        SegmentedKeywordIndex.Snapshot snapshot = index.getSnapshot();
+        Bm25Evaluator evaluator = new Bm25Evaluator(snapshot, K1, B);
+        for (String[] query : QUERIES) {
+            Map<Integer, Double> expected = exhaustive(snapshot, evaluator, query, false);
+            for (int k : KS)
+                assertTopK(expected, evaluator.disjunctive(query, k), k, "OR " + Arrays.toString(query) + " k=" + k);
+        }
+    }
+
+    @Test
+    void testMatchesExhaustiveScoringAfterMerge() throws IOException {
+        index.merge();
+        SegmentedKeywordIndex.Snapshot snapshot = index.getSnapshot();
+        assertEquals(1, snapshot.getNumberOfSegments());
+        Bm25Evaluator evaluator = new Bm25Evaluator(snapshot, K1, B);
+        for (String[] query : QUERIES) {
+            for (int k : KS) {
+                assertTopK(exhaustive(snapshot, evaluator, query, true), evaluator.conjunctive(query, k), k,
+                        "AND " + Arrays.toString(query) + " k=" + k);
+                assertTopK(exhaustive(snapshot, evaluator, query, false), evaluator.disjunctive(query, k), k,
+                        "OR " + Arrays.toString(query) + " k=" + k);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.sorbonne.book_search_engine.algorithms.keyword.index.TestIndexes.books;
+import static com.sorbonne.book_search_engine.algorithms.keyword.index.TestIndexes.toMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Phrases matched against the positions of an index: exact phrases, windows of slop words in any order,
+ * stop words skipped in the phrase, stems repeated in the phrase and books replaced or removed in delta segments.
+ */
+class PhraseMatcherTest {
+    @TempDir
+    Path directory;
+
+    private static Map<Integer, Float> match(SegmentedKeywordIndex index, String[] stems, int[] offsets, int slop) {
+        return toMap(new PhraseMatcher(stems, offsets, slop).match(index.getSnapshot()));
+    }
+
+    private static Map<Integer, Float> expected(int... idsAndMatches) {
+        Map<Integer, Float> map = new HashMap<>();
+        for (int i = 0; i < idsAndMatches.length; i += 2)
+            map.put(idsAndMatches[i], (float) idsAndMatches[i + 1]);
+        return map;
+    }
+
+    @Test
+    void testExactPhrase() throws IOException {
+        SegmentedKeywordIndex index = TestIndexes.open(directory, books(
+                1, "white whale swims",
+                2, "whale white swims",
+                3, "white whale white whale white",
+                4, "white big whale"));
+        String[] stems = {"white", "whale"};
+        assertEquals(expected(1, 1, 3, 2), match(index, stems, new int[]{0, 1}, 0));
+        assertEquals(expected(1, 1), match(index, new String[]{"white", "whale", "swims"}, new int[]{0, 1, 2}, 0));
+    }
+
+    @Test
+    void testSlopWindow() throws IOException {
+        SegmentedKeywordIndex index = TestIndexes.open(directory, books(
+                1, "white whale",
+                2, "whale white",
+                3, "white big whale",
+                4, "white big old whale",
+                5, "white"));
+        String[] stems = {"white", "whale"};
+        int[] offsets = {0, 1};
+        // the window of the two stems is 2 words wide with one extra word
+        assertEquals(expected(1, 1, 2, 1, 3, 1), match(index, stems, offsets, 1));
+        assertEquals(expected(1, 1, 2, 1, 3, 1, 4, 1), match(index, stems, offsets, 2));
+    }
+
+    @Test
+    void testSkippedStopWords() throws IOException {
+        SegmentedKeywordIndex index = TestIndexes.open(directory, books(
+                1, "sea of ships",
+                2, "sea ships",
+                3, "sea and ships"));
+        // "of" is not in the index: the phrase is sea at 0 and ships at 2, whatever word is between them
+        String[] stems = {"sea", "ships"};
+        int[] offsets = {0, 2};
+        assertEquals(expected(1, 1, 3, 1), match(index, stems, offsets, 0));
+        assertEquals(expected(1, 1, 2, 1, 3, 1), match(index, stems, offsets, 1));
+    }
+
+    @Test
+    void testRepeatedStem() throws IOException {
+        SegmentedKeywordIndex index = TestIndexes.open(directory, books(
+                1, "new york",
+                2, "new new york",
+                3, "new old new",
+                4, "new old old old new"));
+        String[] stems = {"new", "new"};
+        int[] offsets = {0, 1};
+        assertEquals(expected(2, 1), match(index, stems, offsets, 0));
+        // a single occurrence never fills both places of the stem
+        assertEquals(expected(2, 1, 3, 1), match(index, stems, offsets, 1));
+        assertEquals(expected(2, 1, 3, 1, 4, 1), match(index, stems, offsets, 3));
+    }
+
+    @Test
+    void testBooksOfDeltaSegments() throws IOException {
+        SegmentedKeywordIndex index = TestIndexes.open(directory, books(
+                1, "white whale",
+                2, "white whale",
+                3, "black sea"));
+        String[] stems = {"white", "whale"};
+        int[] offsets = {0, 1};
+        assertEquals(expected(1, 1, 2, 1), match(index, stems, offsets, 0));
+
+        // book 1 replaced by a version without the phrase, book 4 added, book 2 removed
+        index.addSegment(TestIndexes.dictionary(books(1, "whale of white", 4, "white whale white whale")));
+        index.delete(2);
+        assertEquals(expected(4, 2), match(index, stems, offsets, 0));
+        assertEquals(expected(1, 1, 4, 3), match(index, stems, offsets, 1));
+
+        index.merge();
+        assertEquals(expected(4, 2), match(index, stems, offsets, 0));
+        assertEquals(expected(4, 2), match(TestIndexes.reopen(directory), stems, offsets, 0));
+    }
+}
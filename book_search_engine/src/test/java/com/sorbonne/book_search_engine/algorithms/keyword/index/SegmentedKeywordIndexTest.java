@@ -0,0 +1,131 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static com.sorbonne.book_search_engine.algorithms.keyword.index.TestIndexes.books;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Books added, replaced and removed through delta segments: only the latest version of a live book is found,
+ * before the segments are merged, after they are merged and after the index is opened again from its manifest.
+ */
+class SegmentedKeywordIndexTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * @return the stems of every live book, read from the term tables of the snapshot
+     */
+    private static Map<Integer, Set<String>> stemsOfBooks(SegmentedKeywordIndex.Snapshot snapshot) {
+        List<String> stems = snapshot.stems();
+        Map<Integer, Set<String>> books = new HashMap<>();
+        for (Map.Entry<Integer, Postings> table : snapshot.bookTermTables().entrySet()) {
+            Set<String> stemsOfBook = new TreeSet<>();
+            for (int i = 0; i < table.getValue().size(); i++)
+                stemsOfBook.add(stems.get(table.getValue().id(i)));
+            books.put(table.getKey(), stemsOfBook);
+        }
+        return books;
+    }
+
+    private static Set<String> stems(String... stems) {
+        return new TreeSet<>(Arrays.asList(stems));
+    }
+
+    private static Set<Integer> ids(Postings postings) {
+        Set<Integer> ids = new TreeSet<>();
+        for (int i = 0; i < postings.size(); i++)
+            ids.add(postings.id(i));
+        return ids;
+    }
+
+    private static Set<Integer> ids(Integer... ids) {
+        return new TreeSet<>(Arrays.asList(ids));
+    }
+
+    /**
+     * book 1 replaced, book 2 untouched, book 3 removed then added again, book 4 added then removed
+     */
+    private static void assertLatestVersions(SegmentedKeywordIndex.Snapshot snapshot) {
+        Map<Integer, Set<String>> expected = new HashMap<>();
+        expected.put(1, stems("green", "island"));
+        expected.put(2, stems("black", "sea"));
+        expected.put(3, stems("red", "whale"));
+        assertEquals(expected, stemsOfBooks(snapshot));
+        assertEquals(ids(), ids(snapshot.postings("white")));
+        assertFalse(snapshot.contains("white"));
+        assertEquals(ids(3), ids(snapshot.postings("whale")));
+        assertEquals(ids(2), ids(snapshot.postings("sea")));
+        assertEquals(ids(1), ids(snapshot.postings("island")));
+        assertTrue(snapshot.contains("red"));
+        // relevance of the latest version
+        assertEquals(0.5f, snapshot.postings("whale").score(0));
+        assertEquals(ids(1, 3), new TreeSet<>(snapshot.bookTermTables(Arrays.asList(1, 3, 4), new ArrayList<>()).keySet()));
+    }
+
+    private SegmentedKeywordIndex build() throws IOException {
+        SegmentedKeywordIndex index = TestIndexes.open(directory, books(
+                1, "white whale",
+                2, "black sea",
+                3, "white sea"));
+        index.addSegment(TestIndexes.dictionary(books(1, "green island", 4, "white island")));
+        index.delete(3);
+        index.addSegment(TestIndexes.dictionary(books(3, "red whale")));
+        index.delete(4);
+        return index;
+    }
+
+    @Test
+    void testDeltas() throws IOException {
+        SegmentedKeywordIndex index = build();
+        assertEquals(2, index.getNumberOfDeltas());
+        assertLatestVersions(index.getSnapshot());
+        assertLatestVersions(TestIndexes.reopen(directory).getSnapshot());
+    }
+
+    @Test
+    void testMerge() throws IOException {
+        SegmentedKeywordIndex index = build();
+        SegmentedKeywordIndex.Snapshot beforeMerge = index.getSnapshot();
+        index.merge();
+        assertEquals(0, index.getNumberOfDeltas());
+        assertLatestVersions(index.getSnapshot());
+        // a snapshot taken before the merge is not changed by it
+        assertLatestVersions(beforeMerge);
+        SegmentedKeywordIndex reopened = TestIndexes.reopen(directory);
+        assertEquals(0, reopened.getNumberOfDeltas());
+        assertLatestVersions(reopened.getSnapshot());
+        // the merged segments are deleted, only the new main segment is left
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.filter(file -> file.toString().endsWith(".idx")).count());
+        }
+    }
+
+    @Test
+    void testChangesAfterMerge() throws IOException {
+        SegmentedKeywordIndex index = build();
+        index.merge();
+        index.delete(2);
+        index.addSegment(TestIndexes.dictionary(books(1, "white whale")));
+        for (SegmentedKeywordIndex opened : Arrays.asList(index, TestIndexes.reopen(directory))) {
+            Map<Integer, Set<String>> expected = new HashMap<>();
+            expected.put(1, stems("white", "whale"));
+            expected.put(3, stems("red", "whale"));
+            assertEquals(expected, stemsOfBooks(opened.getSnapshot()));
+            assertEquals(ids(), ids(opened.getSnapshot().postings("sea")));
+            assertEquals(ids(), ids(opened.getSnapshot().postings("island")));
+            assertEquals(ids(1, 3), ids(opened.getSnapshot().postings("whale")));
+        }
+        index.merge();
+        assertEquals(ids(1, 3), stemsOfBooks(TestIndexes.reopen(directory).getSnapshot()).keySet());
+    }
+}
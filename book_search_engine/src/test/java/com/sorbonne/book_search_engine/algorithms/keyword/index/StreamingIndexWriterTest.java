@@ -0,0 +1,56 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Offsets into a section at the 2GB limit of a mapped buffer: written as they are up to the limit,
+ * failing loudly past it instead of wrapping to negative offsets, both when writing and when opening an index.
+ */
+class StreamingIndexWriterTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void testOffsetUpToLimit() throws IOException {
+        assertEquals(0, StreamingIndexWriter.offset(KeywordIndex.Section.POSTING_BOOKS, 0));
+        assertEquals(Integer.MAX_VALUE, StreamingIndexWriter.offset(KeywordIndex.Section.POSTING_BOOKS, KeywordIndex.MAX_SECTION_LENGTH));
+        assertEquals(Integer.MAX_VALUE - 1, StreamingIndexWriter.offset(KeywordIndex.Section.POSITION_BYTES, KeywordIndex.MAX_SECTION_LENGTH - 1));
+    }
+
+    @Test
+    void testOffsetOverLimit() {
+        IOException e = assertThrows(IOException.class,
+                () -> StreamingIndexWriter.offset(KeywordIndex.Section.POSITION_BYTES, KeywordIndex.MAX_SECTION_LENGTH + 1));
+        assertTrue(e.getMessage().contains("POSITION_BYTES"));
+        assertThrows(IOException.class, () -> StreamingIndexWriter.offset(KeywordIndex.Section.POSTING_BOOKS, 3L << 30));
+    }
+
+    @Test
+    void testOpenSectionOverLimit() throws IOException {
+        Path path = directory.resolve("keywords.idx");
+        KeywordIndex.Section[] sections = KeywordIndex.Section.values();
+        try (DataOutputStream header = new DataOutputStream(Files.newOutputStream(path))) {
+            header.writeInt(KeywordIndex.MAGIC);
+            header.writeInt(KeywordIndex.VERSION);
+            for (int i = 0; i < 4; i++)
+                header.writeInt(0);
+            header.writeInt(sections.length);
+            for (KeywordIndex.Section section : sections) {
+                header.writeLong(KeywordIndex.headerLength());
+                header.writeLong(section == KeywordIndex.Section.POSITION_BYTES ? KeywordIndex.MAX_SECTION_LENGTH + 1 : 0);
+            }
+        }
+        IOException e = assertThrows(IOException.class, () -> KeywordIndex.open(path));
+        assertTrue(e.getMessage().contains("POSITION_BYTES"));
+    }
+}
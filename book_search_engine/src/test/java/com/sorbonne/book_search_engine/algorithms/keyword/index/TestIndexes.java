@@ -0,0 +1,96 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import com.sorbonne.book_search_engine.algorithms.keyword.config.KeywordDictionary;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Small keyword indexes for tests, built from texts without stemming: every word is its own stem, and stop words
+ * take a position without being indexed nor counted in the length of a book, as with the keywords extractor.
+ */
+final class TestIndexes {
+    static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList("the", "of", "a", "and"));
+
+    private TestIndexes() {
+    }
+
+    /**
+     * @param texts the text of every book by id, words being separated by spaces
+     * @return the keyword dictionary of the books, with positions
+     */
+    static KeywordDictionary dictionary(Map<Integer, String> texts) {
+        HashMap<String, String> word2Keyword = new HashMap<>();
+        HashMap<String, HashMap<Integer, Double>> keywordInBooks = new HashMap<>();
+        HashMap<Integer, HashMap<String, Double>> keywordBookTable = new HashMap<>();
+        HashMap<String, HashMap<Integer, int[]>> keywordPositions = new HashMap<>();
+        HashMap<Integer, Integer> bookLengths = new HashMap<>();
+        for (Map.Entry<Integer, String> text : texts.entrySet()) {
+            int id = text.getKey();
+            Map<String, List<Integer>> positions = new HashMap<>();
+            int position = 0;
+            int length = 0;
+            for (String word : text.getValue().toLowerCase(Locale.ROOT).split(" +")) {
+                if (word.isEmpty())
+                    continue;
+                if (!STOP_WORDS.contains(word)) {
+                    positions.computeIfAbsent(word, w -> new ArrayList<>()).add(position);
+                    length++;
+                }
+                position++;
+            }
+            HashMap<String, Double> table = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> stem : positions.entrySet()) {
+                double relevance = stem.getValue().size() / (double) length;
+                word2Keyword.put(stem.getKey(), stem.getKey());
+                keywordInBooks.computeIfAbsent(stem.getKey(), s -> new HashMap<>()).put(id, relevance);
+                keywordPositions.computeIfAbsent(stem.getKey(), s -> new HashMap<>())
+                        .put(id, stem.getValue().stream().mapToInt(Integer::intValue).toArray());
+                table.put(stem.getKey(), relevance);
+            }
+            keywordBookTable.put(id, table);
+            bookLengths.put(id, length);
+        }
+        return new KeywordDictionary(word2Keyword, keywordInBooks, keywordBookTable, keywordPositions, bookLengths);
+    }
+
+    /**
+     * write the main segment of an index of the books in a directory and open it
+     * @param directory the directory of the index
+     * @param texts the text of every book by id
+     * @return the segmented index, without any delta
+     */
+    static SegmentedKeywordIndex open(Path directory, Map<Integer, String> texts) throws IOException {
+        Path mainFile = directory.resolve("keywords.idx");
+        KeywordIndexWriter.write(dictionary(texts), mainFile);
+        return reopen(directory);
+    }
+
+    /**
+     * @return the index of the directory opened again from its files, as at a restart
+     */
+    static SegmentedKeywordIndex reopen(Path directory) throws IOException {
+        return SegmentedKeywordIndex.open(directory.resolve("keywords.idx"), directory.resolve("keywords.manifest"));
+    }
+
+    /**
+     * @return the texts of the books, by id
+     */
+    static Map<Integer, String> books(Object... idsAndTexts) {
+        Map<Integer, String> texts = new LinkedHashMap<>();
+        for (int i = 0; i < idsAndTexts.length; i += 2)
+            texts.put((Integer) idsAndTexts[i], (String) idsAndTexts[i + 1]);
+        return texts;
+    }
+
+    /**
+     * @return the pairs of the postings as a map of <id, score>
+     */
+    static Map<Integer, Float> toMap(Postings postings) {
+        Map<Integer, Float> map = new HashMap<>();
+        for (int i = 0; i < postings.size(); i++)
+            map.put(postings.id(i), postings.score(i));
+        return map;
+    }
+}
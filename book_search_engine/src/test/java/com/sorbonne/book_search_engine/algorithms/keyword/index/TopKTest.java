@@ -0,0 +1,108 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Selection of the k best pairs: greater scores first, smaller ids first at the same score,
+ * for no pair, a single pair and every pair.
+ */
+class TopKTest {
+    private static int[] ids(Postings postings) {
+        int[] ids = new int[postings.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = postings.id(i);
+        return ids;
+    }
+
+    @Test
+    void testBestScores() {
+        TopK top = new TopK(3);
+        assertEquals(Float.NEGATIVE_INFINITY, top.threshold());
+        top.offer(1, 0.5f);
+        top.offer(2, 0.1f);
+        top.offer(3, 0.9f);
+        assertTrue(top.isFull());
+        assertEquals(0.1f, top.threshold());
+        assertTrue(top.offer(4, 0.7f));
+        assertFalse(top.offer(5, 0.2f));
+        assertEquals(0.5f, top.threshold());
+        Postings postings = top.toPostings();
+        assertArrayEquals(new int[]{1, 3, 4}, ids(postings));
+        assertArrayEquals(new int[]{3, 4, 1}, postings.idsByScore());
+    }
+
+    @Test
+    void testTiesKeepSmallerIds() {
+        TopK top = new TopK(2);
+        top.offer(7, 1f);
+        top.offer(3, 1f);
+        assertFalse(top.offer(9, 1f));
+        assertTrue(top.offer(5, 1f));
+        assertTrue(top.offer(1, 1f));
+        assertArrayEquals(new int[]{1, 3}, ids(top.toPostings()));
+        assertTrue(top.offer(8, 2f));
+        assertArrayEquals(new int[]{1, 8}, ids(top.toPostings()));
+    }
+
+    @Test
+    void testZero() {
+        TopK top = new TopK(0);
+        assertTrue(top.isFull());
+        assertEquals(Float.POSITIVE_INFINITY, top.threshold());
+        assertFalse(top.offer(1, Float.MAX_VALUE));
+        assertEquals(0, top.size());
+        assertTrue(top.toPostings().isEmpty());
+    }
+
+    @Test
+    void testOne() {
+        TopK top = new TopK(1);
+        assertTrue(top.offer(4, 0.3f));
+        assertFalse(top.offer(6, 0.3f));
+        assertTrue(top.offer(2, 0.3f));
+        assertFalse(top.offer(1, 0.2f));
+        assertTrue(top.offer(9, 0.4f));
+        assertEquals(0.4f, top.threshold());
+        assertArrayEquals(new int[]{9}, ids(top.toPostings()));
+    }
+
+    @Test
+    void testMaxValueKeepsEveryPair() {
+        TopK top = new TopK(Integer.MAX_VALUE);
+        Random random = new Random(7);
+        Postings.Builder all = new Postings.Builder();
+        for (int id = 1000; id > 0; id--) {
+            float score = random.nextInt(50);
+            all.add(id, score);
+            assertTrue(top.offer(id, score));
+        }
+        assertFalse(top.isFull());
+        assertEquals(Float.NEGATIVE_INFINITY, top.threshold());
+        Postings postings = top.toPostings();
+        Postings expected = all.build();
+        assertArrayEquals(ids(expected), ids(postings));
+        assertArrayEquals(expected.idsByScore(), postings.idsByScore());
+    }
+
+    @Test
+    void testMatchesSorting() {
+        Random random = new Random(11);
+        Postings.Builder builder = new Postings.Builder();
+        for (int id = 0; id < 500; id++)
+            builder.add(id, random.nextInt(20) / 4f);
+        Postings postings = builder.build();
+        int[] sorted = postings.idsByScore();
+        for (int k : new int[]{1, 2, 10, 499, 500}) {
+            int[] expected = new int[k];
+            System.arraycopy(sorted, 0, expected, 0, k);
+            assertArrayEquals(expected, postings.top(k).idsByScore(), "k=" + k);
+        }
+    }
+}
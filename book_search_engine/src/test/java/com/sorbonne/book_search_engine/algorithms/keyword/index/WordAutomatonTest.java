@@ -0,0 +1,106 @@
+package com.sorbonne.book_search_engine.algorithms.keyword.index;
+
+import com.sorbonne.book_search_engine.algorithms.regex.BaselineRegExSearch;
+import com.sorbonne.book_search_engine.algorithms.regex.CompilationContext;
+import com.sorbonne.book_search_engine.algorithms.regex.CompiledDFA;
+import com.sorbonne.book_search_engine.algorithms.regex.NFA;
+import com.sorbonne.book_search_engine.algorithms.regex.RegEx;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Words accepted by a regex walked along the word automaton, compared with the baseline search of the regex
+ * in every word one after the other, on the vocabulary of one segment and of several segments.
+ * The regexes have no anchors, so literal words and patterns as long as the words they match stand for
+ * the anchored cases.
+ */
+class WordAutomatonTest {
+    private static final String[] PATTERNS = {
+            // literal and fixed length
+            "whale", "s.n", "c(a|o)t", "......",
+            // .*
+            ".*", "wh.*e", "a.*b.*c", "é.*e",
+            // alternation
+            "cat|dog", "(th|sh)(e|a)*r", "(a|b)*c", "(in|on|an)(s|t)",
+            // empty match
+            "a*", "(ab)*", "(a|b)*", "(x|y*)"
+    };
+
+    @TempDir
+    Path directory;
+
+    /**
+     * @return random words over a few letters, so that the patterns match some of them in part,
+     * and some fixed words, with characters out of ASCII
+     */
+    private static List<String> vocabulary(long seed, int size) {
+        List<String> words = new ArrayList<>(Arrays.asList(
+                "a", "ab", "abc", "whale", "whales", "white", "wheel", "cat", "cot", "dog", "sun", "son", "shear",
+                "thar", "other", "oxygen", "café", "naïve", "élève", "œuvre"));
+        Random random = new Random(seed);
+        String letters = "abcdehinorstwyé";
+        for (int i = 0; i < size; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(10);
+            for (int j = 0; j < length; j++)
+                word.append(letters.charAt(random.nextInt(letters.length())));
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static CompiledDFA compile(String regEx) {
+        CompilationContext context = new CompilationContext();
+        return CompiledDFA.compile(NFA.fromRegExTreeToNFA(RegEx.parse(regEx), context), context);
+    }
+
+    /**
+     * @return the words matched by the baseline search, in the order of `words`
+     */
+    private static List<String> baseline(String regEx, Iterable<String> words) {
+        BaselineRegExSearch search = new BaselineRegExSearch(regEx);
+        List<String> matched = new ArrayList<>();
+        for (String word : words) {
+            if (search.matches(word))
+                matched.add(word);
+        }
+        return matched;
+    }
+
+    @Test
+    void testMatchesBaselineSearch() {
+        WordAutomaton automaton = WordAutomaton.of(vocabulary(42, 3000));
+        // the words of the automaton in ascending order, which is the order of the words accepted
+        List<String> words = new ArrayList<>();
+        automaton.iterator().forEachRemaining(words::add);
+        for (String pattern : PATTERNS)
+            assertEquals(baseline(pattern, words), automaton.wordsAcceptedBy(compile(pattern)), pattern);
+    }
+
+    @Test
+    void testMatchesBaselineSearchOnSegments() throws IOException {
+        Map<Integer, String> texts = new LinkedHashMap<>();
+        List<String> vocabulary = vocabulary(7, 600);
+        for (int i = 0; i < vocabulary.size(); i += 10)
+            texts.put(i, String.join(" ", vocabulary.subList(i, Math.min(i + 10, vocabulary.size()))));
+        SegmentedKeywordIndex index = TestIndexes.open(directory, texts);
+        Map<Integer, String> delta = new LinkedHashMap<>();
+        List<String> newWords = vocabulary(8, 200);
+        for (int i = 0; i < newWords.size(); i += 10)
+            delta.put(10000 + i, String.join(" ", newWords.subList(i, Math.min(i + 10, newWords.size()))));
+        index.addSegment(TestIndexes.dictionary(delta));
+
+        Set<String> words = new TreeSet<>();
+        index.getSnapshot().words().forEach(words::add);
+        for (String pattern : PATTERNS) {
+            assertEquals(new TreeSet<>(baseline(pattern, words)),
+                    new TreeSet<>(index.getSnapshot().wordsAcceptedBy(compile(pattern))), pattern);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.sorbonne.book_search_engine.algorithms.regex;
+
+import java.util.Set;
+
+/**
+ * The search of a regex in a word as first written: recursive over the DFAStates of a {@link DFA}, starting again
+ * from the root after every character on a dead end. Kept as the reference the faster matchers are checked against.
+ */
+public final class BaselineRegExSearch {
+    private final DFA dfa;
+
+    /**
+     * @param regEx a regex
+     */
+    public BaselineRegExSearch(String regEx) {
+        CompilationContext context = new CompilationContext();
+        dfa = DFA.fromNFAtoDFA(NFA.fromRegExTreeToNFA(RegEx.parse(regEx), context), context);
+    }
+
+    /**
+     * @param word a word
+     * @return true if a part of the word is matched by the regex
+     */
+    public boolean matches(String word) {
+        return search(dfa.getRoot(), dfa.getRoot(), dfa.getAcceptings(), word, 0);
+    }
+
+    static boolean search(DFAState root, DFAState state, Set<DFAState> acceptings, String line, int position) {
+        if (acceptings.contains(state))
+            return true;
+
+        if (position >= line.length())
+            return false;
+
+        int input = line.charAt(position);
+
+        DFAState next = state.getTransition(input);
+
+        if (next == null)
+            return search(root, root, acceptings, line, position + 1);
+
+        if (!search(root, next, acceptings, line, position + 1))
+            return search(root, root, acceptings, line, position + 1);
+
+        return true;
+    }
+}
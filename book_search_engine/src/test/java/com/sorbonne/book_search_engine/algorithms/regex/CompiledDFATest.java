@@ -0,0 +1,130 @@
+package com.sorbonne.book_search_engine.algorithms.regex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Words matched in one pass by {@link CompiledDFA} compared with the baseline recursive search of
+ * {@link BaselineRegExSearch} and with {@link Pattern}, and regexes whose automata would have too many states rejected.
+ * The regexes have no anchors: a word is matched if a part of it, not empty, is matched, so literal words and patterns
+ * as long as the words they match stand for the anchored cases.
+ */
+class CompiledDFATest {
+    static final String[] PATTERNS = {
+            // literal and fixed length
+            "whale", "s.n", "c(a|o)t", "......",
+            // .*
+            ".*", "wh.*e", "a.*b.*c", "e.*e.*e",
+            // alternation
+            "cat|dog", "(th|sh)(e|a)*r", "(a|b)*c", "d*cc", "c*|(a*|aa).(.(b*d*)|(b(a|.*d*d)a))",
+            // empty match
+            "a*", "(ab)*", "(a|b)*", "(x|y*)"
+    };
+
+    /**
+     * @return random words over a few letters, so that the patterns match some of them in part,
+     * and some fixed words, with the empty word and characters out of ASCII
+     */
+    static List<String> vocabulary() {
+        List<String> words = new ArrayList<>(Arrays.asList(
+                "", "a", "ab", "abc", "whale", "whales", "white", "wheel", "cat", "cot", "dog", "dot", "sun", "son",
+                "shear", "thar", "other", "oxygen", "café", "naïve", "œuvre", "ébène"));
+        Random random = new Random(42);
+        String letters = "abcdehinorstw";
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(10);
+            for (int j = 0; j < length; j++)
+                word.append(letters.charAt(random.nextInt(letters.length())));
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * @return true if a part of the word, not empty, is matched by the regex, the regexes being valid for {@link Pattern}
+     */
+    static boolean matchesPart(Pattern pattern, String word) {
+        for (int start = 0; start < word.length(); start++) {
+            for (int end = start + 1; end <= word.length(); end++) {
+                if (pattern.matcher(word.substring(start, end)).matches())
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static CompiledDFA compile(String regEx) {
+        CompilationContext context = new CompilationContext();
+        return CompiledDFA.compile(NFA.fromRegExTreeToNFA(RegEx.parse(regEx), context), context);
+    }
+
+    @Test
+    void testMatchesBaselineSearch() {
+        List<String> vocabulary = vocabulary();
+        for (String pattern : PATTERNS) {
+            BaselineRegExSearch baseline = new BaselineRegExSearch(pattern);
+            CompiledDFA compiledDFA = compile(pattern);
+            int matched = 0;
+            for (String word : vocabulary) {
+                boolean expected = baseline.matches(word);
+                assertEquals(expected, compiledDFA.matches(word), pattern + " on \"" + word + "\"");
+                if (expected)
+                    matched++;
+            }
+            assertTrue(matched > 0, pattern + " matches no word");
+        }
+    }
+
+    @Test
+    void testMatchesPattern() {
+        List<String> vocabulary = vocabulary();
+        for (String pattern : PATTERNS) {
+            Pattern expected = Pattern.compile(pattern);
+            CompiledDFA compiledDFA = compile(pattern);
+            for (String word : vocabulary) {
+                // . only stands for the 256 first characters
+                if (word.chars().allMatch(c -> c < 256))
+                    assertEquals(matchesPart(expected, word), compiledDFA.matches(word), pattern + " on \"" + word + "\"");
+            }
+        }
+    }
+
+    @Test
+    void testEmptyMatch() {
+        // the empty part of a word is never matched, only parts of at least one character
+        for (String pattern : new String[]{"a*", "(ab)*", "(x|y*)"}) {
+            assertFalse(compile(pattern).matches(""), pattern);
+            assertFalse(new BaselineRegExSearch(pattern).matches("zzz"), pattern);
+            assertFalse(compile(pattern).matches("zzz"), pattern);
+        }
+        assertTrue(compile("a*").matches("zza"));
+        assertTrue(compile("(x|y*)").matches("zzy"));
+    }
+
+    @Test
+    void testTooManyStates() {
+        // .* followed by the DFA of (a|b)*a.... remembers the last 5 characters read
+        String regEx = "(a|b)*a....";
+        CompilationContext context = new CompilationContext();
+        NFA nfa = NFA.fromRegExTreeToNFA(RegEx.parse(regEx), context);
+        assertThrows(RegExTooComplexException.class, () -> CompiledDFA.compile(nfa, context, 16));
+
+        CompilationContext otherContext = new CompilationContext();
+        CompiledDFA compiledDFA = CompiledDFA.compile(NFA.fromRegExTreeToNFA(RegEx.parse(regEx), otherContext), otherContext, 1000);
+        assertTrue(compiledDFA.getNumberOfStates() <= 1000);
+        BaselineRegExSearch baseline = new BaselineRegExSearch(regEx);
+        for (String word : vocabulary())
+            assertEquals(baseline.matches(word), compiledDFA.matches(word), regEx + " on \"" + word + "\"");
+    }
+}
@@ -0,0 +1,77 @@
+package com.sorbonne.book_search_engine.algorithms.regex;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Words of a vocabulary matched by a regex: the recursive search of {@link BaselineRegExSearch} over a {@link DFA},
+ * which starts again from the root after every character on a dead end, against the one pass of
+ * {@link CompiledDFA#matches(CharSequence)} over the DFA compiled with an implicit .* before the regex.
+ * Words are drawn from a few letters, so that the regexes match them in part and the recursive search goes deep.
+ *
+ * Run with the test classpath, e.g. from the IDE, or:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.sorbonne.book_search_engine.algorithms.regex.RegExMatchBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegExMatchBenchmark {
+    private static final int VOCABULARY_SIZE = 50000;
+    private static final String LETTERS = "abcdehinorstw";
+
+    @Param({"wint.*", "s.n", "(th|sh)(e|a)*r", "(a|b)*c"})
+    private String regEx;
+
+    private String[] vocabulary;
+    private DFA dfa;
+    private CompiledDFA compiledDFA;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + random.nextInt(10);
+            for (int j = 0; j < length; j++)
+                word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+            vocabulary[i] = word.toString();
+        }
+        CompilationContext context = new CompilationContext();
+        NFA nfa = NFA.fromRegExTreeToNFA(RegEx.parse(regEx), context);
+        dfa = DFA.fromNFAtoDFA(nfa, context);
+        compiledDFA = CompiledDFA.compile(dfa, nfa.getInputSymbols());
+    }
+
+    @Benchmark
+    public int recursiveSearch() {
+        int matched = 0;
+        for (String word : vocabulary) {
+            if (BaselineRegExSearch.search(dfa.getRoot(), dfa.getRoot(), dfa.getAcceptings(), word, 0))
+                matched++;
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public int onePass() {
+        int matched = 0;
+        for (String word : vocabulary) {
+            if (compiledDFA.matches(word))
+                matched++;
+        }
+        return matched;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RegExMatchBenchmark.class.getSimpleName()).build()).run();
+    }
+}
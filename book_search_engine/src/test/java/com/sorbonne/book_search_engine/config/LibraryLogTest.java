@@ -0,0 +1,108 @@
+package com.sorbonne.book_search_engine.config;
+
+import com.sorbonne.book_search_engine.entity.Book;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Changes of the library appended to books.log: replayed on books.ser into the same library after a restart,
+ * a record cut by a crash being ignored, and compacted into books.ser.
+ */
+class LibraryLogTest {
+    @TempDir
+    Path directory;
+    private File libraryFile;
+    private File logFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        libraryFile = directory.resolve("books.ser").toFile();
+        logFile = directory.resolve("books.log").toFile();
+        new LibraryLog(libraryFile, logFile).compact(library(book(1, "Moby Dick"), book(2, "Ulysses")));
+    }
+
+    private static Book book(int id, String title) {
+        Book book = new Book();
+        book.setId(id);
+        book.setTitle(title);
+        return book;
+    }
+
+    private static HashMap<Integer, Book> library(Book... books) {
+        HashMap<Integer, Book> library = new HashMap<>();
+        for (Book book : books)
+            library.put(book.getId(), book);
+        return library;
+    }
+
+    /**
+     * read books.ser and replay books.log on it, as at the start of the application
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Integer, Book> restart() throws IOException, ClassNotFoundException {
+        Map<Integer, Book> library;
+        try (ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(libraryFile)))) {
+            library = (Map<Integer, Book>) input.readObject();
+        }
+        new LibraryLog(libraryFile, logFile).replay(library);
+        return library;
+    }
+
+    @Test
+    void testReplayAfterRestart() throws IOException, ClassNotFoundException {
+        LibraryLog libraryLog = new LibraryLog(libraryFile, logFile);
+        assertFalse(libraryLog.hasChanges());
+        libraryLog.put(book(3, "Dracula"));
+        libraryLog.put(book(1, "Moby Dick; or, The Whale"));
+        libraryLog.remove(2);
+        libraryLog.put(book(2, "Ulysses, second edition"));
+        libraryLog.remove(3);
+        assertTrue(libraryLog.hasChanges());
+
+        Map<Integer, Book> expected = library(book(1, "Moby Dick; or, The Whale"), book(2, "Ulysses, second edition"));
+        assertEquals(expected, restart());
+        // replaying again from books.ser gives the same library
+        assertEquals(expected, restart());
+    }
+
+    @Test
+    void testCutRecordIgnored() throws IOException, ClassNotFoundException {
+        LibraryLog libraryLog = new LibraryLog(libraryFile, logFile);
+        libraryLog.remove(1);
+        libraryLog.put(book(4, "Emma"));
+        byte[] bytes = Files.readAllBytes(logFile.toPath());
+        Files.write(logFile.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+        Map<Integer, Book> library = new HashMap<>(library(book(1, "Moby Dick"), book(2, "Ulysses")));
+        assertEquals(1, libraryLog.replay(library));
+        assertEquals(library(book(2, "Ulysses")), library);
+    }
+
+    @Test
+    void testCompaction() throws IOException, ClassNotFoundException {
+        LibraryLog libraryLog = new LibraryLog(libraryFile, logFile);
+        libraryLog.put(book(3, "Dracula"));
+        libraryLog.remove(1);
+        Map<Integer, Book> library = restart();
+        libraryLog.compact(library);
+        assertFalse(libraryLog.hasChanges());
+        assertFalse(logFile.exists());
+        assertEquals(0, libraryLog.replay(new HashMap<>()));
+        assertEquals(library(book(2, "Ulysses"), book(3, "Dracula")), restart());
+
+        // changes after the compaction are replayed on the compacted library
+        libraryLog.put(book(1, "Moby Dick"));
+        assertEquals(library(book(1, "Moby Dick"), book(2, "Ulysses"), book(3, "Dracula")), restart());
+    }
+}